@@ -0,0 +1,63 @@
+package com.example.android.blurperfmormance;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Runs the {@link BenchmarkRunner} without showing anything and finishes.  Start it with
+ * <pre>
+ * adb shell am start \
+ *         -n com.example.android.opengl/com.example.android.blurperfmormance.BenchmarkActivity \
+ *         --ei warmup 10 --ei frames 60
+ * </pre>
+ * (the application id is com.example.android.opengl, not the package of the classes) and
+ * collect the report, /data/data/com.example.android.opengl/files/benchmark.json, from a
+ * debug build with
+ * <pre>
+ * adb shell run-as com.example.android.opengl cat files/benchmark.json &gt; benchmark.json
+ * </pre>
+ * With --ez micro true it runs the {@link DeviceMicrobenchmark} instead and writes
+ * files/microbenchmark.json in the same directory.
+ */
+public class BenchmarkActivity extends Activity {
+    private static final String TAG = "BenchmarkActivity";
+
+    public static final String EXTRA_WARMUP_FRAMES = "warmup";
+    public static final String EXTRA_MEASURED_FRAMES = "frames";
+    public static final String EXTRA_MICROBENCHMARK = "micro";
+
+    private static final String REPORT_FILE = "benchmark.json";
+    private static final String MICROBENCHMARK_REPORT_FILE = "microbenchmark.json";
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        final boolean micro = getIntent().getBooleanExtra(EXTRA_MICROBENCHMARK, false);
+        final BenchmarkRunner runner = new BenchmarkRunner(getApplicationContext());
+        runner.setFrameCounts(getIntent().getIntExtra(EXTRA_WARMUP_FRAMES, 10),
+                getIntent().getIntExtra(EXTRA_MEASURED_FRAMES, 60));
+        final File report = new File(getFilesDir(),
+                micro ? MICROBENCHMARK_REPORT_FILE : REPORT_FILE);
+        new Thread("BenchmarkRunner") {
+            @Override
+            public void run() {
+                try {
+                    if (micro) {
+                        new DeviceMicrobenchmark(getApplicationContext()).runToFile(report);
+                    } else {
+                        runner.runToFile(report);
+                    }
+                } catch (IOException ioe) {
+                    Log.w(TAG, "Unable to write " + report, ioe);
+                } finally {
+                    finish();
+                }
+            }
+        }.start();
+    }
+}
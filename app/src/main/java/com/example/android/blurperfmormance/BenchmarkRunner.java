@@ -0,0 +1,298 @@
+package com.example.android.blurperfmormance;
+
+import android.content.Context;
+import android.graphics.Point;
+import android.opengl.GLES31;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Measures every algorithm at a matrix of radii, render resolutions and intermediate
+ * formats on pbuffer surfaces, without a window, and reports the results as JSON.
+ * <p>
+ * Each combination draws some warmup frames, which also compile its programs, and then
+ * the measured frames.  Every frame ends with glFinish(), so its time covers submitting
+ * and executing the passes and frames don't overlap; GPU times per pass are added where
+ * timer queries are supported.  Algorithms draw directly, without {@link BlurResultCache}.
+ * <p>
+ * Needs nothing beyond GLES 3.0 and pbuffers, so it also runs on an emulator with a
+ * software renderer such as SwiftShader; algorithms that need GLES 3.1 fall back like in
+ * the app, and formats the device can't render to are reported as skipped.  Runs on the
+ * calling thread, which must not have a current EGL context.
+ */
+public final class BenchmarkRunner {
+    private static final String TAG = "BenchmarkRunner";
+
+    // Frame time budget the missed-deadline counts are relative to.
+    private static final long DEADLINE_NANOS = 1000000000L / 60;
+
+    private final Context mContext;
+    private Point[] mResolutions = { new Point(720, 1280), new Point(1080, 1920) };
+    private float[] mRadii = { 1.75f, 3.5f, 7.0f };
+    private int[] mTargetFormats = { GLES31.GL_RGBA, GLES31.GL_RGB565, GLES31.GL_RGBA16F };
+    private int mWarmupFrames = 10;
+    private int mMeasuredFrames = 60;
+    private int mMeasurementCount;
+
+    public BenchmarkRunner(Context context) {
+        mContext = context;
+    }
+
+    public void setResolutions(Point... resolutions) {
+        mResolutions = resolutions;
+    }
+
+    /**
+     * @param radii Blur radii, at most the algorithms' maximum of 7.
+     */
+    public void setRadii(float... radii) {
+        mRadii = radii;
+    }
+
+    /**
+     * @param formats Formats accepted by {@link BlurSquare#setTargetFormat(int)}.
+     */
+    public void setTargetFormats(int... formats) {
+        mTargetFormats = formats;
+    }
+
+    public void setFrameCounts(int warmupFrames, int measuredFrames) {
+        if (warmupFrames < 0 || measuredFrames < 1) {
+            throw new IllegalArgumentException("frame counts out of range: " + warmupFrames
+                    + ", " + measuredFrames);
+        }
+        mWarmupFrames = warmupFrames;
+        mMeasuredFrames = measuredFrames;
+    }
+
+    /**
+     * Runs the whole matrix and returns the report.
+     */
+    public String run() {
+        long start = System.nanoTime();
+        EglCore eglCore = new EglCore(null, EglCore.FLAG_TRY_GLES3);
+        StringBuilder json = new StringBuilder(16384);
+        try {
+            json.append("{\"warmupFrames\":").append(mWarmupFrames)
+                    .append(",\"measuredFrames\":").append(mMeasuredFrames)
+                    .append(",\"results\":[");
+            boolean first = true;
+            String renderer = null;
+            for (Point resolution : mResolutions) {
+                OffscreenSurface surface = new OffscreenSurface(eglCore, resolution.x,
+                        resolution.y);
+                surface.makeCurrent();
+                if (renderer == null) {
+                    renderer = GLES31.glGetString(GLES31.GL_RENDERER) + " / "
+                            + GLES31.glGetString(GLES31.GL_VERSION);
+                    Log.d(TAG, "Benchmarking on " + renderer);
+                }
+                try {
+                    first = runResolution(resolution, json, first);
+                } finally {
+                    surface.release();
+                }
+            }
+            json.append("],\"renderer\":").append(quote(renderer))
+                    .append(",\"totalSeconds\":").append(String.format(Locale.US, "%.1f",
+                            (System.nanoTime() - start) / 1e9))
+                    .append('}');
+        } finally {
+            eglCore.makeNothingCurrent();
+            eglCore.release();
+        }
+        return json.toString();
+    }
+
+    private boolean runResolution(Point size, StringBuilder json, boolean first) {
+        GpuResourcePool resourcePool = new GpuResourcePool();
+        ShaderVariantCache programCache = new ShaderVariantCache(null, null,
+                BlurRenderer.MAX_CACHED_PROGRAMS);
+        GlStateCache stateCache = new GlStateCache(resourcePool);
+        FullscreenTriangle triangle = new FullscreenTriangle();
+        GpuTimer gpuTimer = GpuTimer.isSupported() ? new GpuTimer() : null;
+        BlurAlgorithmRegistry algorithms = BlurRenderer.createAlgorithms(mContext, size,
+                programCache, resourcePool, null);
+        try {
+            for (int i = 0; i < algorithms.size(); i++) {
+                BlurSquare blurSquare = algorithms.select(i);
+                blurSquare.setStateCache(stateCache);
+                blurSquare.setGpuTimer(gpuTimer);
+                for (int format : mTargetFormats) {
+                    for (float radius : mRadii) {
+                        if (!first) {
+                            json.append(',');
+                        }
+                        first = false;
+                        json.append('{');
+                        appendConfiguration(json, blurSquare, size, format, radius);
+                        String skipped = getSkipReason(blurSquare, format, radius);
+                        if (skipped != null) {
+                            json.append(",\"skipped\":").append(quote(skipped)).append('}');
+                            continue;
+                        }
+                        blurSquare.setTargetFormat(format);
+                        measure(blurSquare, size, radius, stateCache, triangle, gpuTimer, json);
+                        json.append('}');
+                    }
+                }
+                blurSquare.setTargetFormat(GLES31.GL_RGBA);
+            }
+        } finally {
+            algorithms.release();
+            if (gpuTimer != null) {
+                gpuTimer.release();
+            }
+            triangle.release();
+            resourcePool.release();
+            programCache.release();
+        }
+        return first;
+    }
+
+    private String getSkipReason(BlurSquare blurSquare, int format, float radius) {
+        if (radius <= 0.0f || radius > blurSquare.getRadius()) {
+            return "radius out of range";
+        }
+        if (!blurSquare.isTargetFormatSupported(format)) {
+            return "format not supported by algorithm";
+        }
+        if (!isColorRenderable(format)) {
+            return "format not color-renderable";
+        }
+        return null;
+    }
+
+    private static boolean isColorRenderable(int format) {
+        if (format != GLES31.GL_RGBA16F && format != GLES31.GL_R11F_G11F_B10F) {
+            return true;
+        }
+        String extensions = GLES31.glGetString(GLES31.GL_EXTENSIONS);
+        return extensions != null && (extensions.contains("GL_EXT_color_buffer_float")
+                || (format == GLES31.GL_RGBA16F
+                        && extensions.contains("GL_EXT_color_buffer_half_float")));
+    }
+
+    private void measure(BlurSquare blurSquare, Point size, float radius,
+            GlStateCache stateCache, FullscreenTriangle triangle, GpuTimer gpuTimer,
+            StringBuilder json) {
+        float interpolationValue = radius / blurSquare.getRadius();
+        String scope = "measurement " + mMeasurementCount++;
+        FrameTimeHistogram frameTimes = new FrameTimeHistogram(DEADLINE_NANOS);
+        for (int frame = 0; frame < mWarmupFrames + mMeasuredFrames; frame++) {
+            boolean measured = frame >= mWarmupFrames;
+            if (gpuTimer != null) {
+                gpuTimer.setScope(measured ? scope : "warmup");
+                gpuTimer.beginFrame();
+            }
+            triangle.bind();
+            stateCache.beginFrame();
+            stateCache.viewport(0, 0, size.x, size.y);
+
+            long frameStart = System.nanoTime();
+            blurSquare.draw(interpolationValue);
+            if (gpuTimer != null) {
+                gpuTimer.endFrame();
+            }
+            GLES31.glFinish();
+            long frameNanos = System.nanoTime() - frameStart;
+
+            stateCache.endFrame();
+            if (measured) {
+                frameTimes.record(frameNanos);
+            }
+        }
+        if (gpuTimer != null) {
+            // The GPU is idle after glFinish(), so the sets still in flight are ready.
+            for (int i = 0; i < GpuTimer.FRAME_LATENCY; i++) {
+                gpuTimer.beginFrame();
+                gpuTimer.endFrame();
+            }
+        }
+
+        json.append(String.format(Locale.US,
+                ",\"meanMs\":%.3f,\"p50Ms\":%.3f,\"p90Ms\":%.3f,\"p99Ms\":%.3f,\"maxMs\":%.3f",
+                frameTimes.getMeanMillis(), frameTimes.getPercentileMillis(50),
+                frameTimes.getPercentileMillis(90), frameTimes.getPercentileMillis(99),
+                frameTimes.getMaxMillis()));
+        if (gpuTimer != null) {
+            json.append(",\"gpuPassMs\":{");
+            boolean first = true;
+            for (Map.Entry<String, Float> entry : gpuTimer.getPassMillis(scope).entrySet()) {
+                json.append(first ? "" : ",").append(quote(entry.getKey())).append(':')
+                        .append(String.format(Locale.US, "%.3f", entry.getValue()));
+                first = false;
+            }
+            json.append('}');
+            gpuTimer.resetStatistics(scope);
+            gpuTimer.resetStatistics("warmup");
+        }
+        Log.d(TAG, blurSquare.getClass().getSimpleName() + " " + size.x + "x" + size.y
+                + " format=" + getFormatName(blurSquare.getTargetFormat()) + " radius=" + radius
+                + ": " + frameTimes.toSummary());
+    }
+
+    private static void appendConfiguration(StringBuilder json, BlurSquare blurSquare,
+            Point size, int format, float radius) {
+        json.append("\"algorithm\":").append(quote(blurSquare.getClass().getSimpleName()))
+                .append(",\"width\":").append(size.x)
+                .append(",\"height\":").append(size.y)
+                .append(",\"format\":").append(quote(getFormatName(format)))
+                .append(",\"radius\":").append(String.format(Locale.US, "%.2f", radius));
+    }
+
+    static String getFormatName(int format) {
+        switch (GpuResourcePool.getSizedFormat(format)) {
+            case GLES31.GL_RGBA8:
+                return "RGBA8";
+            case GLES31.GL_RGB8:
+                return "RGB8";
+            case GLES31.GL_RGB565:
+                return "RGB565";
+            case GLES31.GL_RGB10_A2:
+                return "RGB10_A2";
+            case GLES31.GL_RGBA16F:
+                return "RGBA16F";
+            case GLES31.GL_R11F_G11F_B10F:
+                return "R11F_G11F_B10F";
+            default:
+                return "0x" + Integer.toHexString(format);
+        }
+    }
+
+    private static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    /**
+     * Runs the matrix and writes the report to file.
+     */
+    public void runToFile(File file) throws IOException {
+        writeReport(run(), file);
+    }
+
+    /**
+     * Writes a report, and a line break, to file as UTF-8.  Also used by
+     * {@link DeviceMicrobenchmark}.
+     */
+    static void writeReport(String report, File file) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(report);
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+        Log.d(TAG, "Report written to " + file);
+    }
+}
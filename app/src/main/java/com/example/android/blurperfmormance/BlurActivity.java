@@ -36,13 +36,25 @@ public class BlurActivity extends Activity {
         mTextureView.setSurfaceTextureListener(mRenderer);
         setContentView(mTextureView);
 
+        // A tap cycles through the algorithms, a two-finger tap through the downsample factors.
         mTextureView.setOnTouchListener(new View.OnTouchListener() {
             private int mIndex = 0;
+            private int mDownsampleFactor = 1;
+            private boolean mMultiTouch;
             @Override
             public boolean onTouch(View v, MotionEvent event) {
-                if (event.getAction() != MotionEvent.ACTION_UP)
+                if (event.getActionMasked() == MotionEvent.ACTION_POINTER_DOWN) {
+                    mMultiTouch = true;
+                }
+                if (event.getActionMasked() != MotionEvent.ACTION_UP)
                     return true;
-                mRenderer.changeBlurAlgorithm(++mIndex);
+                if (mMultiTouch) {
+                    mMultiTouch = false;
+                    mDownsampleFactor = mDownsampleFactor == 8 ? 1 : mDownsampleFactor * 2;
+                    mRenderer.setDownsampleFactor(mDownsampleFactor);
+                } else {
+                    mRenderer.changeBlurAlgorithm(++mIndex);
+                }
                 return true;
             }
         });
@@ -0,0 +1,224 @@
+package com.example.android.blurperfmormance;
+
+import android.content.Context;
+import android.graphics.Point;
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+
+/**
+ * Builds blur algorithms on demand.
+ * <p>
+ * Only the selected algorithm, plus at most one prefetched on a {@link SharedContextWorker},
+ * is resident at a time; the others are released when a new one is selected.  The time
+ * each construction takes is logged, so algorithms can be compared on startup cost too.
+ * <p>
+ * select() and release() must be called on the render thread.
+ */
+public final class BlurAlgorithmRegistry {
+    private static final String TAG = "BlurAlgorithmRegistry";
+
+    /**
+     * Creates one algorithm.  May be called on the worker thread.
+     */
+    public interface Factory {
+        BlurSquare create(Context context, Point size, ShaderVariantCache programCache,
+                GpuResourcePool resourcePool);
+    }
+
+    /**
+     * Returns a factory calling the algorithm's (Context, Point, ShaderVariantCache,
+     * GpuResourcePool) constructor, which every BlurSquare has.
+     */
+    public static Factory forClass(Class<? extends BlurSquare> algorithm) {
+        final Constructor<? extends BlurSquare> constructor;
+        try {
+            constructor = algorithm.getConstructor(Context.class, Point.class,
+                    ShaderVariantCache.class, GpuResourcePool.class);
+        } catch (NoSuchMethodException nsme) {
+            throw new IllegalArgumentException(algorithm.getSimpleName()
+                    + " has no algorithm constructor", nsme);
+        }
+        return new Factory() {
+            @Override
+            public BlurSquare create(Context context, Point size,
+                    ShaderVariantCache programCache, GpuResourcePool resourcePool) {
+                try {
+                    return constructor.newInstance(context, size, programCache, resourcePool);
+                } catch (InvocationTargetException ite) {
+                    Throwable cause = ite.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
+                } catch (InstantiationException ie) {
+                    throw new RuntimeException(ie);     // not expected, checked in forClass()
+                } catch (IllegalAccessException iae) {
+                    throw new RuntimeException(iae);    // not expected, the constructor is public
+                }
+            }
+        };
+    }
+
+    private static class Entry {
+        final Factory mFactory;
+        BlurSquare mInstance;
+        boolean mPending;
+        volatile long mConstructionNanos = -1;
+
+        Entry(Factory factory) {
+            mFactory = factory;
+        }
+    }
+
+    private final Context mContext;
+    private final Point mSize;
+    private final ShaderVariantCache mProgramCache;
+    private final GpuResourcePool mResourcePool;
+    private final SharedContextWorker mWorker;
+    private final ArrayList<Entry> mEntries = new ArrayList<Entry>();
+    private final Object mLock = new Object();     // guards Entry.mInstance, Entry.mPending
+
+    /**
+     * @param worker Worker used by prefetch(), or null to always build on the render thread.
+     */
+    public BlurAlgorithmRegistry(Context context, Point size, ShaderVariantCache programCache,
+            GpuResourcePool resourcePool, SharedContextWorker worker) {
+        mContext = context;
+        mSize = size;
+        mProgramCache = programCache;
+        mResourcePool = resourcePool;
+        mWorker = worker;
+    }
+
+    /**
+     * Adds an algorithm to the selection cycle and returns its index.
+     */
+    public int register(Factory factory) {
+        mEntries.add(new Entry(factory));
+        return mEntries.size() - 1;
+    }
+
+    /**
+     * Adds an algorithm built through its constructor, see {@link #forClass(Class)}.
+     */
+    public int register(Class<? extends BlurSquare> algorithm) {
+        return register(forClass(algorithm));
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    private Entry getEntry(int index) {
+        int size = mEntries.size();
+        return mEntries.get(((index % size) + size) % size);
+    }
+
+    /**
+     * Returns the algorithm at index, modulo the number of algorithms.  It is built now
+     * unless a prefetch is already building it, in which case this waits for the prefetch.
+     * Every other resident algorithm is released.
+     */
+    public BlurSquare select(int index) {
+        Entry entry = getEntry(index);
+        BlurSquare blurSquare;
+        synchronized (mLock) {
+            while (entry.mPending) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException ie) {
+                    throw new RuntimeException(ie);     // not expected
+                }
+            }
+            blurSquare = entry.mInstance;
+        }
+
+        if (blurSquare == null) {
+            blurSquare = build(entry, false);
+            synchronized (mLock) {
+                entry.mInstance = blurSquare;
+            }
+        }
+
+        releaseAllExcept(entry);
+        return blurSquare;
+    }
+
+    /**
+     * Builds the algorithm at index on the worker, so a later select() finds it ready.
+     */
+    public void prefetch(int index) {
+        if (mWorker == null) {
+            return;
+        }
+        final Entry entry = getEntry(index);
+        synchronized (mLock) {
+            if (entry.mInstance != null || entry.mPending) {
+                return;
+            }
+            entry.mPending = true;
+        }
+
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                BlurSquare blurSquare = null;
+                try {
+                    blurSquare = build(entry, true);
+                    GLES20.glFinish();
+                } finally {
+                    synchronized (mLock) {
+                        entry.mInstance = blurSquare;
+                        entry.mPending = false;
+                        mLock.notifyAll();
+                    }
+                }
+            }
+        });
+    }
+
+    private BlurSquare build(Entry entry, boolean background) {
+        long startTime = System.nanoTime();
+        BlurSquare blurSquare = entry.mFactory.create(mContext, mSize, mProgramCache,
+                mResourcePool);
+        entry.mConstructionNanos = System.nanoTime() - startTime;
+        Log.d(TAG, "Built " + blurSquare.getClass().getSimpleName() + " in "
+                + entry.mConstructionNanos / 1000000 + "ms"
+                + (background ? " (background)" : ""));
+        return blurSquare;
+    }
+
+    private void releaseAllExcept(Entry keep) {
+        synchronized (mLock) {
+            for (Entry entry : mEntries) {
+                if (entry != keep && entry.mInstance != null) {
+                    entry.mInstance.release();
+                    entry.mInstance = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns how long the last construction of the algorithm took, or -1 if it was never
+     * built.
+     */
+    public long getConstructionMillis(int index) {
+        long nanos = getEntry(index).mConstructionNanos;
+        return nanos < 0 ? -1 : nanos / 1000000;
+    }
+
+    /**
+     * Releases every resident algorithm.  Halt the worker first.
+     */
+    public void release() {
+        releaseAllExcept(null);
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.android.blurperfmormance;
+
+import android.opengl.GLES31;
+import android.util.Log;
+
+/**
+ * Renders the blur once at a few evenly spaced radii and shows the radii in between by
+ * crossfading the two bracketing levels, so an animated sweep over a static source costs a
+ * single two-fetch draw per frame instead of the algorithm's passes.
+ * <p>
+ * Level 0 is the unblurred source itself; levels 1..levelCount-1 are pool targets of the
+ * screen size divided by levelDownsampleFactor, which bounds the memory the ladder keeps.
+ * The ladder is rebuilt when the algorithm or its downsample factor changes, or after
+ * {@link #invalidate()}.  Crossfading is not a Gaussian of the intermediate radius, so
+ * between levels the result is a slightly softer mix of two blurs.  Render thread only.
+ */
+public final class BlurRadiusLadder {
+    private static final String TAG = "BlurRadiusLadder";
+
+    public static final int DEFAULT_LEVEL_COUNT = 8;
+
+    // Pool slots of the levels start after the pass targets and BlurResultCache.
+    private static final int FIRST_LEVEL_SLOT = PassGraph.MAX_TARGETS + 1;
+
+    private static final String VERTEX_SHADER_CODE =
+            "#version 300 es\n" +
+            "precision mediump float;\n" +
+            "in vec4 aPosition;\n" +
+            "in vec2 aTexCoord;\n" +
+            "out vec2 vTexCoord;\n" +
+
+            "void main()\n" +
+            "{\n" +
+            "    vTexCoord = aTexCoord;\n" +
+            "    gl_Position = aPosition;\n" +
+            "}";
+
+    private static final String FRAGMENT_SHADER_CODE =
+            "#version 300 es\n" +
+            "precision mediump float;\n" +
+            "uniform sampler2D uTexture;\n" +
+            "uniform sampler2D uBlendTexture;\n" +
+            "uniform float uBlend;\n" +
+            "in vec2 vTexCoord;\n" +
+            "out vec4 fragColor;\n" +
+
+            "void main()\n" +
+            "{\n" +
+            "    fragColor = mix(texture(uTexture, vTexCoord),\n" +
+            "            texture(uBlendTexture, vTexCoord), uBlend);\n" +
+            "}";
+
+    static final ShaderVariantCache.Key KEY =
+            new ShaderVariantCache.Key("Crossfade", ShaderVariantCache.DIRECTION_HORIZONTAL, 0);
+
+    static final ShaderVariantCache.Source SOURCE = new ShaderVariantCache.Source() {
+        @Override
+        public String getVertexShaderCode(ShaderVariantCache.Key key) {
+            return VERTEX_SHADER_CODE;
+        }
+
+        @Override
+        public String getFragmentShaderCode(ShaderVariantCache.Key key) {
+            return FRAGMENT_SHADER_CODE;
+        }
+    };
+
+    private final GpuResourcePool mResourcePool;
+    private final int mLevelCount;
+    private final int mLevelDownsampleFactor;
+    private final GpuResourcePool.Texture[] mLevels;
+    private final int[] mScreenViewport = new int[4];
+    private boolean mLevelsReady;
+
+    private BlurSquare mBlurSquare;
+    private int mDownsampleFactor;
+    private int mBuildCount;
+
+    /**
+     * @param levelCount Number of radii kept, including the unblurred source; at least 2.
+     * @param levelDownsampleFactor Divides the screen size of the blurred levels.  Each
+     *                              level takes width * height * 4 / factor^2 bytes.
+     */
+    public BlurRadiusLadder(GpuResourcePool resourcePool, int levelCount,
+            int levelDownsampleFactor) {
+        if (levelCount < 2) {
+            throw new IllegalArgumentException("level count out of range: " + levelCount);
+        }
+        if (levelDownsampleFactor < 1) {
+            throw new IllegalArgumentException("unsupported downsample factor "
+                    + levelDownsampleFactor);
+        }
+        mResourcePool = resourcePool;
+        mLevelCount = levelCount;
+        mLevelDownsampleFactor = levelDownsampleFactor;
+        mLevels = new GpuResourcePool.Texture[levelCount];
+    }
+
+    public int getLevelCount() {
+        return mLevelCount;
+    }
+
+    /**
+     * Marks the levels stale, e.g. because the source image changed.  They're rebuilt on
+     * the next draw.
+     */
+    public void invalidate() {
+        mLevelsReady = false;
+    }
+
+    /**
+     * Draws the blur at blurSquare's radius times interpolationValue to the screen.
+     *
+     * @param width Width of the screen and of the current viewport.
+     * @param height Height of the screen and of the current viewport.
+     */
+    public void draw(BlurSquare blurSquare, float interpolationValue, int width, int height) {
+        if (!mLevelsReady || blurSquare != mBlurSquare
+                || blurSquare.getDownsampleFactor() != mDownsampleFactor) {
+            build(blurSquare, width, height);
+        }
+
+        float position = Math.max(0.0f, Math.min(1.0f, interpolationValue)) * (mLevelCount - 1);
+        int lower = Math.min((int) position, mLevelCount - 2);
+        blurSquare.drawCrossfade(getLevelTexture(blurSquare, lower),
+                getLevelTexture(blurSquare, lower + 1), position - lower);
+    }
+
+    private int getLevelTexture(BlurSquare blurSquare, int level) {
+        return level == 0 ? blurSquare.getSourceTexture().getName() : mLevels[level].getName();
+    }
+
+    private void build(BlurSquare blurSquare, int width, int height) {
+        long start = System.nanoTime();
+        int levelWidth = Math.max(1, width / mLevelDownsampleFactor);
+        int levelHeight = Math.max(1, height / mLevelDownsampleFactor);
+        if (mLevels[1] == null || mLevels[1].getWidth() != levelWidth
+                || mLevels[1].getHeight() != levelHeight) {
+            releaseLevels();
+            for (int i = 1; i < mLevelCount; i++) {
+                mLevels[i] = mResourcePool.acquireRenderTarget(levelWidth, levelHeight,
+                        GLES31.GL_RGBA, FIRST_LEVEL_SLOT + i - 1);
+            }
+        }
+
+        GlStateCache state = blurSquare.getStateCache();
+        state.getViewport(mScreenViewport);
+        state.viewport(0, 0, levelWidth, levelHeight);
+        for (int i = 1; i < mLevelCount; i++) {
+            blurSquare.setOutputFramebuffer(mResourcePool.getFramebuffer(mLevels[i]));
+            blurSquare.draw(i / (float) (mLevelCount - 1));
+        }
+        blurSquare.setOutputFramebuffer(0);
+        state.viewport(mScreenViewport[0], mScreenViewport[1],
+                mScreenViewport[2], mScreenViewport[3]);
+
+        mBlurSquare = blurSquare;
+        mDownsampleFactor = blurSquare.getDownsampleFactor();
+        mLevelsReady = true;
+        mBuildCount++;
+        Log.d(TAG, "Built " + mLevelCount + " levels of " + levelWidth + "x" + levelHeight
+                + " in " + (System.nanoTime() - start) / 1000 + "us (build " + mBuildCount + ")");
+    }
+
+    private void releaseLevels() {
+        for (int i = 1; i < mLevelCount; i++) {
+            if (mLevels[i] != null) {
+                mResourcePool.release(mLevels[i]);
+                mLevels[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the levels to the pool.
+     */
+    public void release() {
+        releaseLevels();
+        mLevelsReady = false;
+        mBlurSquare = null;
+    }
+}
@@ -25,6 +25,14 @@ import android.util.Log;
 import android.view.Display;
 import android.view.TextureView;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Handles GL rendering and SurfaceTexture callbacks.
  * <p>
@@ -32,20 +40,86 @@ import android.view.TextureView;
  * happen on the UI thread.
  */
 public class BlurRenderer extends Thread implements TextureView.SurfaceTextureListener {
-    private Object mLock = new Object();        // guards mSurfaceTexture, mDone
+    private Object mLock = new Object();        // guards mSurfaceTexture, mDone, mAlgorithmIndex,
+                                                // mDownsampleFactor
     private SurfaceTexture mSurfaceTexture;
     private EglCore mEglCore;
     private boolean mDone;
     private Context mContext;
     private BlurSquare mBlurSquare;
-    private BlurSquare[] mBlurSquares;
-    private long mStartTime = 0;
-    private long mFrameCounter = 0;
-    private long mAnimationDuration = 3000;
-    private long mAnimationStart;
+    private BlurAlgorithmRegistry mAlgorithms;
+    private int mAlgorithmIndex;
+    private int mDownsampleFactor = 1;
+    private final Map<String, FrameTimeHistogram> mFrameTimeHistograms =
+            new HashMap<String, FrameTimeHistogram>();
+    private FrameTimeHistogram mFrameTimes;
+    private String mFrameTimesScope;
+    private long mFrameDeadlineNanos;
+    private long mLastFrameStatsTime;
+    private final BlurAnimation mAnimation = new BlurAnimation(3000);
+    private FrameClock mFrameClock;
+    private ShaderVariantCache mProgramCache;
+    private ProgramBinaryCache mBinaryCache;
+    private GpuResourcePool mResourcePool;
+    private BlurResultCache mResultCache;
+    private BlurRadiusLadder mRadiusLadder;
+    private FullscreenTriangle mFullscreenTriangle;
+    private GlStateCache mStateCache;
+    private volatile GpuTimer mGpuTimer;
+    private FrameCapture mFrameCapture;
 
     private static final String TAG = "BlurRenderer";
 
+    // Enough for every tap count of the current algorithm in both directions, plus a few
+    // programs of the previously shown one.  Also the limit of BenchmarkRunner.
+    static final int MAX_CACHED_PROGRAMS = 48;
+
+    // Build the algorithm after the selected one in the background, so the next tap on the
+    // screen doesn't stall.  Textures are pooled, so this only costs the second algorithm's
+    // programs.
+    private static final boolean PREFETCH_NEXT_ALGORITHM = true;
+
+    // Filter used to scale the result back up when blurring at reduced size.
+    private static final int UPSAMPLE_FILTER = Upsampler.FILTER_BICUBIC;
+
+    // Invocations per work group of BlurSquareComputeSeparable.
+    private static final int COMPUTE_WORK_GROUP_SIZE =
+            BlurSquareComputeSeparable.DEFAULT_WORK_GROUP_SIZE;
+
+    // Present the previous frame again while the quantized radius doesn't change, instead
+    // of re-running the blur.  Rendered frames then cost one extra full-screen blit, and
+    // cached frames, which skip the algorithm, still count in its frame times and pass
+    // timings, so this measures the cache, not the algorithm.
+    private static final boolean CACHE_RESULTS = false;
+
+    // Render the blur once at this many radii and crossfade between them instead of
+    // blurring every frame; 0 disables.  This measures the crossfade, not the algorithm.
+    private static final int RADIUS_LADDER_LEVEL_COUNT = 0;
+
+    // The ladder's blurred levels are kept at the screen size divided by this.
+    private static final int RADIUS_LADDER_DOWNSAMPLE_FACTOR = 2;
+
+    // Time every pass on the GPU where GL_EXT_disjoint_timer_query is available, and log
+    // the per-pass averages when the algorithm or downsample factor changes.
+    private static final boolean TIME_PASSES = true;
+
+    // Frame times, from the start of the draw to the return of swapBuffers(), are kept per
+    // algorithm and logged and appended to this file in the app's files directory every
+    // FRAME_STATS_INTERVAL_MS and when the algorithm changes, one JSON object per line.
+    private static final String FRAME_STATS_FILE = "frame_times.jsonl";
+    private static final long FRAME_STATS_INTERVAL_MS = 5000;
+
+    // Draw one frame per vsync and ask for it to be presented at a fixed latency, rather
+    // than as fast as swapBuffers() allows.  Ignored if a clock is set with setFrameClock().
+    private static final boolean PACE_TO_VSYNC = true;
+
+    // Save every frame as a PNG in this directory of the app's files directory, read back
+    // asynchronously and compressed on CAPTURE_ENCODER_THREADS threads; null disables.
+    // Frames the capture can't keep up with are dropped, and the frames written per second
+    // are logged with the frame times.
+    private static final String CAPTURE_DIRECTORY = null;
+    private static final int CAPTURE_ENCODER_THREADS = 2;
+
     public BlurRenderer(Context context) {
         mContext = context;
     }
@@ -80,9 +154,72 @@ public class BlurRenderer extends Thread implements TextureView.SurfaceTextureLi
             WindowSurface windowSurface = new WindowSurface(mEglCore, mSurfaceTexture);
             windowSurface.makeCurrent();
 
+            long startTime = System.nanoTime();
+
+            // Linked programs are kept on disk, so later launches skip compilation.
+            mBinaryCache = mEglCore.getGlVersion() >= 3
+                    ? new ProgramBinaryCache(new File(mContext.getCacheDir(), "programs"))
+                    : null;
+
+            // Radius-specialized program variants are compiled ahead of time on a second
+            // context that shares objects with ours.
+            SharedContextWorker shaderWorker = new SharedContextWorker(mEglCore);
+            shaderWorker.start();
+            mProgramCache = new ShaderVariantCache(shaderWorker, mBinaryCache,
+                    MAX_CACHED_PROGRAMS);
+
+            mResourcePool = new GpuResourcePool();
+            mResultCache = new BlurResultCache(mResourcePool);
+            mFullscreenTriangle = new FullscreenTriangle();
+            mStateCache = new GlStateCache(mResourcePool);
+            if (TIME_PASSES) {
+                mGpuTimer = GpuTimer.isSupported() ? new GpuTimer() : null;
+                Log.d(TAG, "GPU pass timing " + (mGpuTimer != null ? "enabled" : "unsupported"));
+            }
+            mRadiusLadder = RADIUS_LADDER_LEVEL_COUNT > 0
+                    ? new BlurRadiusLadder(mResourcePool, RADIUS_LADDER_LEVEL_COUNT,
+                            RADIUS_LADDER_DOWNSAMPLE_FACTOR)
+                    : null;
+            mAlgorithms = createAlgorithms(mContext, getScreenDimentions(), mProgramCache,
+                    mResourcePool, shaderWorker);
+            if (CAPTURE_DIRECTORY != null) {
+                mFrameCapture = new FrameCapture(new File(mContext.getFilesDir(),
+                        CAPTURE_DIRECTORY), windowSurface.getWidth(), windowSurface.getHeight(),
+                        CAPTURE_ENCODER_THREADS);
+            }
+
             // Render frames until we're told to stop or the SurfaceTexture is destroyed.
-            doAnimation(windowSurface);
+            doAnimation(windowSurface, startTime);
+            if (mBlurSquare != null) {
+                writeFrameStats(System.currentTimeMillis());
+                mStateCache.logStatistics(mBlurSquare.getClass().getSimpleName());
+                if (mGpuTimer != null) {
+                    mGpuTimer.logStatistics(getTimingScope(mBlurSquare));
+                }
+            }
+            if (mGpuTimer != null) {
+                mGpuTimer.release();
+            }
+            if (mFrameCapture != null) {
+                mFrameCapture.release();
+                mFrameCapture.logStatistics();
+                mFrameCapture = null;
+            }
 
+            shaderWorker.halt();
+            mAlgorithms.release();
+            mResultCache.logStatistics();
+            mResultCache.release();
+            if (mRadiusLadder != null) {
+                mRadiusLadder.release();
+            }
+            mFullscreenTriangle.release();
+            mResourcePool.logStatistics();
+            mResourcePool.release();
+            mProgramCache.release();
+            if (mBinaryCache != null) {
+                mBinaryCache.logStatistics();
+            }
             windowSurface.release();
             mEglCore.release();
             surfaceTexture.release();
@@ -91,6 +228,14 @@ public class BlurRenderer extends Thread implements TextureView.SurfaceTextureLi
         Log.d(TAG, "Renderer thread exiting");
     }
 
+    /**
+     * Refresh period of the display, which is the time a frame has before it's late.
+     */
+    private long getFrameDeadlineNanos() {
+        Display display = ((Activity)mContext).getWindowManager().getDefaultDisplay();
+        return (long) (1000000000L / display.getRefreshRate());
+    }
+
     Point getScreenDimentions() {
         Display display = ((Activity)mContext).getWindowManager().getDefaultDisplay();
         Point size = new Point();
@@ -99,27 +244,95 @@ public class BlurRenderer extends Thread implements TextureView.SurfaceTextureLi
     }
 
     /**
-     * Draws updates as fast as the system will allow.
-     * <p>
-     * In 4.4, with the synchronous buffer queue queue, the frame rate will be limited.
-     * In previous (and future) releases, with the async queue, many of the frames we
-     * render may be dropped.
+     * Registers every algorithm, in the order a tap cycles through them.  Also used by
+     * {@link BenchmarkRunner}.
+     */
+    static BlurAlgorithmRegistry createAlgorithms(Context context, Point size,
+            ShaderVariantCache programCache, GpuResourcePool resourcePool,
+            SharedContextWorker worker) {
+        BlurAlgorithmRegistry algorithms = new BlurAlgorithmRegistry(context, size,
+                programCache, resourcePool, worker);
+        algorithms.register(BlurSquareTwoPasses.class);
+        algorithms.register(BlurSquareSixPasses.class);
+        algorithms.register(BlurSquareTwoPassesLinearSampling.class);
+        algorithms.register(BlurSquareSixPassesLinearSampling.class);
+        algorithms.register(BlurSquareMipmap.class);
+        algorithms.register(BlurSquareDualKawase.class);
+        algorithms.register(requireCompute("summed-area table",
+                BlurAlgorithmRegistry.forClass(BlurSquareSummedAreaTable.class)));
+        algorithms.register(requireCompute("compute separable",
+                new BlurAlgorithmRegistry.Factory() {
+                    @Override
+                    public BlurSquare create(Context context, Point size,
+                            ShaderVariantCache programCache, GpuResourcePool resourcePool) {
+                        BlurSquareComputeSeparable blurSquare = new BlurSquareComputeSeparable(
+                                context, size, programCache, resourcePool);
+                        blurSquare.setWorkGroupSize(COMPUTE_WORK_GROUP_SIZE);
+                        return blurSquare;
+                    }
+                }));
+        algorithms.register(BlurSquareCpuStack.class);
+        return algorithms;
+    }
+
+    /**
+     * Wraps the factory of a compute algorithm so it builds BlurSquareTwoPasses instead on
+     * contexts without compute shaders.
+     */
+    private static BlurAlgorithmRegistry.Factory requireCompute(final String name,
+            final BlurAlgorithmRegistry.Factory compute) {
+        return new BlurAlgorithmRegistry.Factory() {
+            @Override
+            public BlurSquare create(Context context, Point size, ShaderVariantCache programCache,
+                    GpuResourcePool resourcePool) {
+                if (!BlurSquare.isComputeSupported()) {
+                    Log.w(TAG, "No compute shaders, showing two passes instead of " + name);
+                    return new BlurSquareTwoPasses(context, size, programCache, resourcePool);
+                }
+                return compute.create(context, size, programCache, resourcePool);
+            }
+        };
+    }
+
+    /**
+     * Replaces the clock frames are paced and animated by, e.g. with an
+     * {@link UnthrottledFrameClock} to benchmark, or a {@link FixedStepFrameClock} for a
+     * reproducible animation.  Call before start(); the caller releases the clock.
+     */
+    public void setFrameClock(FrameClock frameClock) {
+        mFrameClock = frameClock;
+    }
+
+    /**
+     * Draws a frame whenever the {@link FrameClock} says so, until the surface goes away.
      * <p>
-     * The correct thing to do here is use Choreographer to schedule frame updates off
-     * of vsync, but that's not nearly as much fun.
+     * By default that is once per vsync.  Unthrottled, with the synchronous buffer queue
+     * of 4.4 the frame rate is still limited; with the async queue of other releases many
+     * of the frames we render may be dropped.
      */
-    private void doAnimation(WindowSurface eglSurface) {
-        Point size = getScreenDimentions();
+    private void doAnimation(WindowSurface eglSurface, long startTime) {
+        mFrameDeadlineNanos = getFrameDeadlineNanos();
+        mLastFrameStatsTime = System.currentTimeMillis();
 
-        mBlurSquares = new BlurSquare[5];
-        mBlurSquares[0] = new BlurSquareTwoPasses(mContext, size);
-        mBlurSquares[1] = new BlurSquareSixPasses(mContext, size);
-        mBlurSquares[2] = new BlurSquareTwoPassesLinearSampling(mContext, size);
-        mBlurSquares[3] = new BlurSquareSixPassesLinearSampling(mContext, size);
-        mBlurSquares[4] = new BlurSquareMipmap(mContext, size);
-        mBlurSquare = mBlurSquares[0];
+        FrameClock frameClock = mFrameClock;
+        if (frameClock == null) {
+            frameClock = PACE_TO_VSYNC
+                    ? new VsyncFrameClock(mFrameDeadlineNanos) : new UnthrottledFrameClock();
+        }
+        try {
+            doAnimation(eglSurface, frameClock, startTime);
+        } finally {
+            if (frameClock != mFrameClock) {
+                frameClock.release();
+            }
+        }
+    }
 
-        mAnimationStart = System.currentTimeMillis();
+    private void doAnimation(WindowSurface eglSurface, FrameClock frameClock, long startTime) {
+        // Algorithms are built the first time they're selected.
+        int currentIndex = -1;
+        int currentDownsampleFactor = -1;
+        mAnimation.reset();
 
         while (true) {
             // Check to see if the TextureView's SurfaceTexture is still valid.
@@ -131,42 +344,154 @@ public class BlurRenderer extends Thread implements TextureView.SurfaceTextureLi
                 }
             }
 
+            long frameTime = frameClock.awaitFrame();
+
             GLES20.glClearColor(1.0f, 1.0f, 1.0f, 1.0f);
             GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
 
-            float interpolationValue = getInterpolationValue();
+            // Every pass of the frame draws the same triangle.
+            mFullscreenTriangle.bind();
 
+            int algorithmIndex;
+            int downsampleFactor;
             synchronized (mLock) {
+                algorithmIndex = mAlgorithmIndex;
+                downsampleFactor = mDownsampleFactor;
+            }
+            if (algorithmIndex != currentIndex || downsampleFactor != currentDownsampleFactor) {
+                if (mBlurSquare != null) {
+                    mStateCache.logStatistics(mBlurSquare.getClass().getSimpleName()
+                            + " at 1/" + currentDownsampleFactor);
+                    if (mGpuTimer != null) {
+                        mGpuTimer.logStatistics(getTimingScope(mBlurSquare));
+                    }
+                    writeFrameStats(System.currentTimeMillis());
+                }
+                mStateCache.resetStatistics();
+                mBlurSquare = mAlgorithms.select(algorithmIndex);
+                mBlurSquare.setStateCache(mStateCache);
+                mBlurSquare.setGpuTimer(mGpuTimer);
+                mBlurSquare.setUpsampleFilter(UPSAMPLE_FILTER);
+                mBlurSquare.setDownsampleFactor(downsampleFactor);
+                if (mGpuTimer != null) {
+                    mGpuTimer.setScope(getTimingScope(mBlurSquare));
+                }
+                mFrameTimesScope = getTimingScope(mBlurSquare);
+                mFrameTimes = mFrameTimeHistograms.get(mFrameTimesScope);
+                if (mFrameTimes == null) {
+                    mFrameTimes = new FrameTimeHistogram(mFrameDeadlineNanos);
+                    mFrameTimeHistograms.put(mFrameTimesScope, mFrameTimes);
+                }
+                if (PREFETCH_NEXT_ALGORITHM && algorithmIndex != currentIndex) {
+                    mAlgorithms.prefetch(algorithmIndex + 1);
+                }
+                Log.d(TAG, mBlurSquare.getClass().getSimpleName() + " at 1/" + downsampleFactor
+                        + " size");
+                mResultCache.invalidate();
+                mResultCache.logStatistics();
+                mResourcePool.logStatistics();
+                currentIndex = algorithmIndex;
+                currentDownsampleFactor = downsampleFactor;
+            }
+
+            float interpolationValue = mAnimation.getValue(frameTime);
+
+            // Bindings may have changed outside the cache since the last frame.  Setting the
+            // viewport here also spares the passes a glGetIntegerv() to look it up.
+            mStateCache.beginFrame();
+            mStateCache.viewport(0, 0, eglSurface.getWidth(), eglSurface.getHeight());
+            mProgramCache.beginFrame();
+            if (mGpuTimer != null) {
+                mGpuTimer.beginFrame();
+            }
+
+            long frameStart = System.nanoTime();
+
+            if (mRadiusLadder != null) {
+                mRadiusLadder.draw(mBlurSquare, interpolationValue, eglSurface.getWidth(),
+                        eglSurface.getHeight());
+            } else if (CACHE_RESULTS) {
+                mResultCache.draw(mBlurSquare, interpolationValue, eglSurface.getWidth(),
+                        eglSurface.getHeight());
+            } else {
                 mBlurSquare.draw(interpolationValue);
             }
+            if (mGpuTimer != null) {
+                mGpuTimer.endFrame();
+            }
+            if (mFrameCapture != null) {
+                mStateCache.bindFramebuffer(0);     // read the window
+                mFrameCapture.capture();
+            }
+            mStateCache.endFrame();
 
+            long presentationTime = frameClock.getPresentationTime();
+            if (presentationTime != 0) {
+                eglSurface.setPresentationTime(presentationTime);
+            }
             eglSurface.swapBuffers();
+            mFrameTimes.record(System.nanoTime() - frameStart);
+
+            if (startTime != 0) {
+                Log.d(TAG, "First frame after " + (System.nanoTime() - startTime) / 1000000 + "ms");
+                if (mBinaryCache != null) {
+                    mBinaryCache.logStatistics();
+                }
+                startTime = 0;
+            }
 
-            printFPS();
+            long now = System.currentTimeMillis();
+            if (now - mLastFrameStatsTime >= FRAME_STATS_INTERVAL_MS) {
+                writeFrameStats(now);
+            }
         }
     }
 
-    private float getInterpolationValue() {
-        long currentTime = System.currentTimeMillis();
-        float interpolationValue = (float)(currentTime - mAnimationStart) / (float)mAnimationDuration;
-        if (interpolationValue > 1.0 && interpolationValue < 2.0)
-            interpolationValue = 2.0f - interpolationValue;
-        else if (interpolationValue >= 2.0) {
-            mAnimationStart = System.currentTimeMillis();
-            interpolationValue = 0.0f;
-        }
-        return interpolationValue;
-//        return 1.0f;
+    /**
+     * Name the GPU times of an algorithm at its current downsample factor are filed under.
+     */
+    public static String getTimingScope(BlurSquare blurSquare) {
+        return blurSquare.getClass().getSimpleName() + " at 1/"
+                + blurSquare.getDownsampleFactor();
     }
 
-    private void printFPS() {
-        mFrameCounter++;
-        if (System.nanoTime() - mStartTime > 1000000000) {
-            long duration = System.nanoTime() - mStartTime;
-            Log.d("Blur", "FPS: " + mFrameCounter * 1000000000.0 / (float)duration);
+    /**
+     * Per-pass GPU times of the algorithms shown so far, by {@link #getTimingScope}.  Null
+     * before the first frame, or if timer queries aren't supported.
+     */
+    public GpuTimer getGpuTimer() {
+        return mGpuTimer;
+    }
+
+    /**
+     * Logs the frame times of the current algorithm and appends them to FRAME_STATS_FILE.
+     * The snapshots are cumulative: each one covers every frame of the algorithm so far.
+     */
+    private void writeFrameStats(long now) {
+        mLastFrameStatsTime = now;
+        if (mFrameTimes == null || mFrameTimes.getCount() == 0) {
+            return;
+        }
+        Log.d(TAG, mFrameTimesScope + ": " + mFrameTimes.toSummary());
+        if (mFrameCapture != null) {
+            mFrameCapture.logStatistics();
+        }
 
-            mStartTime = System.nanoTime();
-            mFrameCounter = 0;
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(
+                    new File(mContext.getFilesDir(), FRAME_STATS_FILE), true), "UTF-8");
+            writer.write(mFrameTimes.toJson(mFrameTimesScope, now));
+            writer.write('\n');
+        } catch (IOException ioe) {
+            Log.w(TAG, "Unable to write " + FRAME_STATS_FILE, ioe);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignored) {
+                }
+            }
         }
     }
 
@@ -225,9 +550,21 @@ public class BlurRenderer extends Thread implements TextureView.SurfaceTextureLi
     public void onSurfaceTextureUpdated(SurfaceTexture st) {
     }
 
+    /**
+     * Blurs at 1/factor of the screen size in each dimension; 1, 2, 4 or 8.
+     */
+    public void setDownsampleFactor(int factor) {
+        synchronized (mLock) {
+            mDownsampleFactor = factor;
+        }
+    }
+
+    /**
+     * Selects the algorithm to show.  The index wraps around the number of algorithms.
+     */
     public void changeBlurAlgorithm(int index) {
         synchronized (mLock) {
-            mBlurSquare = mBlurSquares[index % mBlurSquares.length];
+            mAlgorithmIndex = index;
         }
     }
 }
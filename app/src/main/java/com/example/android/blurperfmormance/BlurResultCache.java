@@ -0,0 +1,128 @@
+package com.example.android.blurperfmormance;
+
+import android.opengl.GLES31;
+import android.util.Log;
+
+/**
+ * Keeps the last blurred frame and presents it again while nothing that affects it changed.
+ * <p>
+ * The key is the algorithm instance, its downsample factor, the radius quantized to
+ * {@link GaussianKernel#RADIUS_STEPS_PER_PIXEL} and a source generation that
+ * {@link #invalidate()} bumps.  The radius is quantized before drawing, so a cached frame
+ * is identical to a re-rendered one.  A radius of 0 skips the algorithm and draws the
+ * source directly.
+ * <p>
+ * Rendered frames are drawn into an offscreen target and blitted to the screen, which
+ * costs one full-screen copy per rendered frame.  Render thread only.
+ */
+public final class BlurResultCache {
+    private static final String TAG = "BlurResultCache";
+
+    // Keeps the cached frame apart from the pass targets, which may have the same size.
+    private static final int TARGET_SLOT = PassGraph.MAX_TARGETS;
+
+    private final GpuResourcePool mResourcePool;
+    private GpuResourcePool.Texture mTarget;
+
+    private BlurSquare mBlurSquare;
+    private int mDownsampleFactor;
+    private int mRadiusStep = -1;
+    private int mSourceGeneration;
+    private int mCachedSourceGeneration = -1;
+
+    private long mRenderedFrames;
+    private long mCachedFrames;
+    private long mBypassedFrames;
+
+    public BlurResultCache(GpuResourcePool resourcePool) {
+        mResourcePool = resourcePool;
+    }
+
+    /**
+     * Marks the cached frame stale, e.g. because the source image changed.
+     */
+    public void invalidate() {
+        mSourceGeneration++;
+    }
+
+    /**
+     * Draws the blurred frame to the screen, re-rendering it only when the key changed.
+     *
+     * @param width Width of the screen and of the current viewport.
+     * @param height Height of the screen and of the current viewport.
+     */
+    public void draw(BlurSquare blurSquare, float interpolationValue, int width, int height) {
+        float radius = blurSquare.getRadius();
+        int radiusStep = Math.round(radius * interpolationValue
+                * GaussianKernel.RADIUS_STEPS_PER_PIXEL);
+        if (radiusStep == 0) {
+            blurSquare.drawUnblurred();
+            mBypassedFrames++;
+            return;
+        }
+
+        if (mTarget == null || mTarget.getWidth() != width || mTarget.getHeight() != height) {
+            release();
+            mTarget = mResourcePool.acquireRenderTarget(width, height, GLES31.GL_RGBA,
+                    TARGET_SLOT);
+        }
+        int framebuffer = mResourcePool.getFramebuffer(mTarget);
+
+        if (blurSquare == mBlurSquare && blurSquare.getDownsampleFactor() == mDownsampleFactor
+                && radiusStep == mRadiusStep && mSourceGeneration == mCachedSourceGeneration) {
+            mCachedFrames++;
+        } else {
+            float quantizedInterpolationValue =
+                    radiusStep / (float) GaussianKernel.RADIUS_STEPS_PER_PIXEL / radius;
+            blurSquare.setOutputFramebuffer(framebuffer);
+            blurSquare.draw(quantizedInterpolationValue);
+            blurSquare.setOutputFramebuffer(0);
+
+            mBlurSquare = blurSquare;
+            mDownsampleFactor = blurSquare.getDownsampleFactor();
+            mRadiusStep = radiusStep;
+            mCachedSourceGeneration = mSourceGeneration;
+            mRenderedFrames++;
+        }
+
+        GLES31.glBindFramebuffer(GLES31.GL_READ_FRAMEBUFFER, framebuffer);
+        GLES31.glBindFramebuffer(GLES31.GL_DRAW_FRAMEBUFFER, 0);
+        GLES31.glBlitFramebuffer(0, 0, width, height, 0, 0, width, height,
+                GLES31.GL_COLOR_BUFFER_BIT, GLES31.GL_NEAREST);
+        GlStateCache state = blurSquare.getStateCache();
+        state.invalidateFramebuffer();
+        state.bindFramebuffer(0);
+    }
+
+    public long getRenderedFrameCount() {
+        return mRenderedFrames;
+    }
+
+    public long getCachedFrameCount() {
+        return mCachedFrames;
+    }
+
+    public long getBypassedFrameCount() {
+        return mBypassedFrames;
+    }
+
+    /**
+     * Writes the rendered / cached / bypassed frame counts to the log.
+     */
+    public void logStatistics() {
+        Log.d(TAG, "Frames: rendered=" + mRenderedFrames + " cached=" + mCachedFrames
+                + " bypassed=" + mBypassedFrames);
+    }
+
+    /**
+     * Returns the cached frame's target to the pool.
+     */
+    public void release() {
+        if (mTarget != null) {
+            mResourcePool.release(mTarget);
+            mTarget = null;
+        }
+        mBlurSquare = null;
+        mRadiusStep = -1;
+    }
+}
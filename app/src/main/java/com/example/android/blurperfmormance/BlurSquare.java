@@ -1,269 +1,635 @@
 package com.example.android.blurperfmormance;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
+import java.util.Locale;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Point;
 import android.opengl.GLES31;
-import android.opengl.GLUtils;
 
 public abstract class BlurSquare {
 
-    private FloatBuffer mVertexBuffer;
-    private FloatBuffer mTexCoordBuffer;
-    private ShortBuffer mDrawOrderBuffer;
+    public final static int MAX_ITERATION_COUNT = 16;
 
-    private class ProgramData {
-        public int mProgram;
-        private int mPositionHandle;
-        private int mTexCoordHandle;
-        public int mTextureHandle;
-        public int mTextureDataHandle;
-        public int mWidthHandle;
-        public int mHeightHandle;
-        public int mMipMapHandle;
-        public int mRadiusHandle;
-        public int mFbo;
-    }
+    private GpuResourcePool.Texture mSourceTexture;
+    private int mSourceHandle;              // the image, or its Gaussian pyramid
+    private GpuResourcePool.Texture[] mTargets = new GpuResourcePool.Texture[0];
+    private int[] mTargetFbos = new int[0];
+    private boolean mFbosReady;
+    private GaussianPyramid mPyramid;
 
-    private int[] mFbos = new int[3];
-    private int[] mTextureDataHandlers = new int[3];
+    private PassGraph mPassGraph;
+    private int mResultTexture;             // PassGraph.OUTPUT, or the texture to upsample
+    private int mIterationCount;
 
-    private ProgramData mVerticalProgramData = new ProgramData();
-    private ProgramData mHorizontalProgramData = new ProgramData();
+    private final ShaderVariantCache mProgramCache;
+    private final GpuResourcePool mResourcePool;
+    private GlStateCache mStateCache;
+    private GpuTimer mGpuTimer;
+    private ShaderVariantCache.Key[][] mVariantKeys;
     Point mSize;
     private float mMipMap = 5;
     private float mRadius = 7;
 
+    private int mDownsampleFactor = 1;
+    private float mDownsampleLevel;         // log2(mDownsampleFactor)
+    private int mTargetWidth;
+    private int mTargetHeight;
+    private int mUpsampleFilter = Upsampler.FILTER_BILINEAR;
+    private int mTargetFormat = GLES31.GL_RGBA;
+    private final int[] mScreenViewport = new int[4];
+    private int mOutputFramebuffer;
+
     private Context mContext;
 
-    private float squareCoords[] = {
-            -1f,  1f, 0.0f,
-            -1f, -1f, 0.0f,
-             1f, -1f, 0.0f,
-             1f,  1f, 0.0f };
-
-    private float squareTexCoord[] = {
-            0f, 1f,
-            0f, 0f,
-            1f, 0f,
-            1f, 1f
-    };
+    private final ShaderVariantCache.Source mShaderSource = new ShaderVariantCache.Source() {
+        @Override
+        public String getVertexShaderCode(ShaderVariantCache.Key key) {
+            return getVertextShaderCode();
+        }
 
-    private final short drawOrder[] = { 0, 1, 2, 0, 2, 3 };
+        @Override
+        public String getFragmentShaderCode(ShaderVariantCache.Key key) {
+            if (key.getDirection() == ShaderVariantCache.DIRECTION_HORIZONTAL) {
+                return getHorizontalFragmentShaderCode(key.getTapCount());
+            }
+            return getVerticalFragmentShaderCode(key.getTapCount());
+        }
+    };
 
     public abstract String getVertextShaderCode();
-    public abstract String getHorizontalFragmentShaderCode();
-    public abstract String getVerticalFragmentShaderCode();
 
-    protected boolean isMultiPass() {
+    /**
+     * Returns the fragment shader of the horizontal pass, unrolled for tapCount taps on each
+     * side of the center.  Called from the BlurSquare constructor, so implementations may
+     * only depend on the argument and on static state.
+     */
+    public abstract String getHorizontalFragmentShaderCode(int tapCount);
+
+    /**
+     * Vertical counterpart of {@link #getHorizontalFragmentShaderCode(int)}.
+     */
+    public abstract String getVerticalFragmentShaderCode(int tapCount);
+
+    /**
+     * Number of vertical + horizontal pass pairs the default pass graph runs.  Called from
+     * the BlurSquare constructor.
+     */
+    protected int getDefaultIterationCount() {
+        return 1;
+    }
+
+    /**
+     * Number of targets the algorithm uses through {@link #getTarget(int)} in its own draw()
+     * in addition to those the pass graph schedules.
+     */
+    protected int getRequiredTargetCount() {
+        return 0;
+    }
+
+    /**
+     * Declares the passes draw() runs: by default iterationCount pairs of a vertical and a
+     * horizontal pass, each reading the previous one's result.  Algorithms that draw
+     * everything themselves declare nothing.
+     *
+     * @param output Texture the last pass writes, {@link PassGraph#OUTPUT} unless the
+     *               result is upsampled afterwards.
+     */
+    protected void declarePasses(PassGraph graph, int iterationCount, int output) {
+        int input = PassGraph.SOURCE;
+        for (int i = 0; i < iterationCount; i++) {
+            int vertical = graph.newTexture();
+            graph.addPass(ShaderVariantCache.DIRECTION_VERTICAL, input, vertical);
+            int horizontal = i == iterationCount - 1 ? output : graph.newTexture();
+            graph.addPass(ShaderVariantCache.DIRECTION_HORIZONTAL, vertical, horizontal);
+            input = horizontal;
+        }
+    }
+
+    /**
+     * Returns true if the first pass samples the source at lower mip levels.  The levels
+     * then come from a {@link GaussianPyramid} rather than glGenerateMipmap.  Called from
+     * the BlurSquare constructor.
+     */
+    protected boolean needsMipmaps() {
         return false;
     }
 
-    public BlurSquare(Context context, Point size) {
+    /**
+     * Returns the kernel whose weights (and linear sampling offsets) are uploaded as the
+     * uWeight / uOffset uniform arrays, or null if the shaders carry their own constants.
+     */
+    protected GaussianKernel getKernel() {
+        return null;
+    }
+
+    private int getMaxTapCount() {
+        GaussianKernel kernel = getKernel();
+        return kernel != null ? kernel.getTapCount() : 0;
+    }
+
+    private int getTapCount(float radius) {
+        GaussianKernel kernel = getKernel();
+        return kernel != null ? kernel.getTapCount(radius) : 0;
+    }
+
+    /**
+     * Returns true if the current context supports compute shaders (GLES 3.1), which the
+     * compute algorithms need; their factories fall back to a fragment algorithm otherwise.
+     */
+    public static boolean isComputeSupported() {
+        int[] version = new int[2];
+        GLES31.glGetIntegerv(GLES31.GL_MAJOR_VERSION, version, 0);
+        GLES31.glGetIntegerv(GLES31.GL_MINOR_VERSION, version, 1);
+        return version[0] > 3 || (version[0] == 3 && version[1] >= 1);
+    }
+
+    /**
+     * Repeats the template for taps 1..tapCount, with the tap index substituted for %1$d.
+     */
+    protected static String unrollTaps(int tapCount, String template) {
+        StringBuilder code = new StringBuilder();
+        for (int i = 1; i <= tapCount; i++) {
+            code.append(String.format(Locale.US, template, i));
+        }
+        return code.toString();
+    }
+
+    /**
+     * Creates the programs and acquires the textures of the algorithm.  May run on a
+     * {@link SharedContextWorker}, everything created here is shared with the render thread.
+     */
+    public BlurSquare(Context context, Point size, ShaderVariantCache programCache,
+            GpuResourcePool resourcePool) {
         mContext = context;
-        prepareBuffers();
+        mProgramCache = programCache;
+        mResourcePool = resourcePool;
+        mStateCache = new GlStateCache(resourcePool);
+        mIterationCount = getDefaultIterationCount();
         preparePrograms();
         mSize = size;
-        prepareFbo();
+        prepareTextures();
     }
 
-    private static int loadShader(int type, String shaderCode) {
-        int shader = GLES31.glCreateShader(type);
-
-        GLES31.glShaderSource(shader, shaderCode);
-        GLES31.glCompileShader(shader);
+    private void preparePrograms() {
+        String algorithm = getClass().getSimpleName();
+        int maxTapCount = getMaxTapCount();
+        mVariantKeys = new ShaderVariantCache.Key[2][maxTapCount + 1];
+        for (int direction = 0; direction < mVariantKeys.length; direction++) {
+            for (int tapCount = 0; tapCount <= maxTapCount; tapCount++) {
+                mVariantKeys[direction][tapCount] =
+                        new ShaderVariantCache.Key(algorithm, direction, tapCount);
+            }
+        }
 
-        return shader;
+        // Compile every variant the radius sweep can reach, smallest first since the
+        // animation starts at radius 0.
+        int sweepTapCount = getTapCount(mRadius);
+        for (int tapCount = getTapCount(0.0f); tapCount <= sweepTapCount; tapCount++) {
+            mProgramCache.prefetch(mVariantKeys[ShaderVariantCache.DIRECTION_VERTICAL][tapCount],
+                    mShaderSource);
+            mProgramCache.prefetch(mVariantKeys[ShaderVariantCache.DIRECTION_HORIZONTAL][tapCount],
+                    mShaderSource);
+        }
     }
 
+    protected ProgramData getProgram(int direction, int tapCount) {
+        ShaderVariantCache.Key[] keys = mVariantKeys[direction];
 
-    private void preparePrograms() {
-        int vertexShader = loadShader(
-                GLES31.GL_VERTEX_SHADER,
-                getVertextShaderCode());
-        int fragmentShaderHorizontal = loadShader(
-                GLES31.GL_FRAGMENT_SHADER,
-                getHorizontalFragmentShaderCode());
-
-        int verticalShaderHorizontal = loadShader(
-                GLES31.GL_FRAGMENT_SHADER,
-                getVerticalFragmentShaderCode());
-
-        mHorizontalProgramData.mProgram = GLES31.glCreateProgram();
-        GLES31.glAttachShader(mHorizontalProgramData.mProgram, vertexShader);
-        GLES31.glAttachShader(mHorizontalProgramData.mProgram, fragmentShaderHorizontal);
-        GLES31.glLinkProgram(mHorizontalProgramData.mProgram);
-
-        mVerticalProgramData.mProgram = GLES31.glCreateProgram();
-        GLES31.glAttachShader(mVerticalProgramData.mProgram, vertexShader);
-        GLES31.glAttachShader(mVerticalProgramData.mProgram, verticalShaderHorizontal);
-        GLES31.glLinkProgram(mVerticalProgramData.mProgram);
-
-        GLES31.glUseProgram(mHorizontalProgramData.mProgram);
-        mHorizontalProgramData.mPositionHandle = GLES31.glGetAttribLocation(mHorizontalProgramData.mProgram, "aPosition");
-        mHorizontalProgramData.mTexCoordHandle = GLES31.glGetAttribLocation(mHorizontalProgramData.mProgram, "aTexCoord");
-        mHorizontalProgramData.mWidthHandle = GLES31.glGetUniformLocation(mHorizontalProgramData.mProgram, "uWidth");
-        mHorizontalProgramData.mHeightHandle = GLES31.glGetUniformLocation(mHorizontalProgramData.mProgram, "uHeight");
-        mHorizontalProgramData.mRadiusHandle = GLES31.glGetUniformLocation(mHorizontalProgramData.mProgram, "uRadius");
-        mHorizontalProgramData.mMipMapHandle = GLES31.glGetUniformLocation(mHorizontalProgramData.mProgram, "uMipLevel");
-        mHorizontalProgramData.mTextureHandle = GLES31.glGetUniformLocation(mHorizontalProgramData.mProgram, "uTexture");
-
-        GLES31.glUseProgram(mVerticalProgramData.mProgram);
-        mVerticalProgramData.mPositionHandle = GLES31.glGetAttribLocation(mVerticalProgramData.mProgram, "aPosition");
-        mVerticalProgramData.mTexCoordHandle = GLES31.glGetAttribLocation(mVerticalProgramData.mProgram, "aTexCoord");
-        mVerticalProgramData.mWidthHandle = GLES31.glGetUniformLocation(mVerticalProgramData.mProgram, "uWidth");
-        mVerticalProgramData.mHeightHandle = GLES31.glGetUniformLocation(mVerticalProgramData.mProgram, "uHeight");
-        mVerticalProgramData.mRadiusHandle = GLES31.glGetUniformLocation(mVerticalProgramData.mProgram, "uRadius");
-        mVerticalProgramData.mMipMapHandle = GLES31.glGetUniformLocation(mVerticalProgramData.mProgram, "uMipLevel");
-        mVerticalProgramData.mTextureHandle = GLES31.glGetUniformLocation(mVerticalProgramData.mProgram, "uTexture");
-    }
-
-    private void prepareBuffers() {
-        ByteBuffer bb = ByteBuffer.allocateDirect(squareCoords.length * 4);
-        bb.order(ByteOrder.nativeOrder());
-        mVertexBuffer = bb.asFloatBuffer();
-        mVertexBuffer.put(squareCoords);
-        mVertexBuffer.position(0);
-
-        ByteBuffer tb = ByteBuffer.allocateDirect(squareTexCoord.length * 4);
-        tb.order(ByteOrder.nativeOrder());
-        mTexCoordBuffer = tb.asFloatBuffer();
-        mTexCoordBuffer.put(squareTexCoord);
-        mTexCoordBuffer.position(0);
-
-        ByteBuffer dlb = ByteBuffer.allocateDirect(drawOrder.length * 2);
-        dlb.order(ByteOrder.nativeOrder());
-        mDrawOrderBuffer = dlb.asShortBuffer();
-        mDrawOrderBuffer.put(drawOrder);
-        mDrawOrderBuffer.position(0);
+        // The animated radius moves one bucket at a time, keep the neighbours warm.
+        if (tapCount > 0) {
+            mProgramCache.prefetch(keys[tapCount - 1], mShaderSource);
+        }
+        if (tapCount + 1 < keys.length) {
+            mProgramCache.prefetch(keys[tapCount + 1], mShaderSource);
+        }
+        return mProgramCache.get(keys[tapCount], mShaderSource);
     }
 
-    private void prepareFbo() {
-        for (int i = 0; i < mFbos.length - 1; ++i) {
-            int[] fbo = new int[1];
-            GLES31.glGenFramebuffers(1, fbo, 0);
-            GLES31.glBindFramebuffer(GLES31.GL_FRAMEBUFFER, fbo[0]);
+    /**
+     * Acquires the source image, schedules the pass graph and acquires the targets it needs
+     * at the current downsample factor.  Downsampling reads the image through its mip
+     * chain, so the reduction is filtered.  Algorithms that need mipmaps read the Gaussian
+     * pyramid instead of the image.
+     */
+    private void prepareTextures() {
+        mTargetWidth = Math.max(1, mSize.x / mDownsampleFactor);
+        mTargetHeight = Math.max(1, mSize.y / mDownsampleFactor);
+
+        mSourceTexture = mResourcePool.acquireImage(mContext, R.drawable.image,
+                !needsMipmaps() && mDownsampleFactor > 1);
+        if (needsMipmaps() && mPyramid == null) {
+            mPyramid = new GaussianPyramid(mResourcePool, mSourceTexture);
+        }
+        mSourceHandle = mPyramid != null
+                ? mPyramid.getTexture().getName() : mSourceTexture.getName();
+
+        PassGraph graph = new PassGraph();
+        mResultTexture = mDownsampleFactor > 1 ? graph.newTexture() : PassGraph.OUTPUT;
+        declarePasses(graph, mIterationCount, mResultTexture);
+        graph.compile();
+        mPassGraph = graph;
+
+        // Target i lives in pool slot i, so algorithms of the same target size share them.
+        mTargets = new GpuResourcePool.Texture[
+                Math.max(graph.getTargetCount(), getRequiredTargetCount())];
+        for (int i = 0; i < mTargets.length; ++i) {
+            mTargets[i] = mResourcePool.acquireRenderTarget(mTargetWidth, mTargetHeight,
+                    mTargetFormat, i);
+        }
+        mTargetFbos = new int[mTargets.length];
+    }
 
-            int[] texture = new int[1];
-            GLES31.glGenTextures(1, texture, 0);
-            GLES31.glBindTexture(GLES31.GL_TEXTURE_2D, texture[0]);
-            GLES31.glTexImage2D(GLES31.GL_TEXTURE_2D, 0, GLES31.GL_RGB, (int) mSize.x, (int) mSize.y, 0, GLES31.GL_RGB, GLES31.GL_UNSIGNED_BYTE, null);
+    /**
+     * Re-acquires the textures after a change of their size or number.  Acquires before
+     * releasing, so a texture both configurations use isn't re-created.
+     */
+    private void reacquireTextures() {
+        GpuResourcePool.Texture previousSource = mSourceTexture;
+        GpuResourcePool.Texture[] previousTargets = mTargets;
+        prepareTextures();
+        mResourcePool.release(previousSource);
+        for (GpuResourcePool.Texture texture : previousTargets) {
+            mResourcePool.release(texture);
+        }
+        mFbosReady = false;
+    }
 
-            GLES31.glTexParameteri(GLES31.GL_TEXTURE_2D, GLES31.GL_TEXTURE_MIN_FILTER, GLES31.GL_LINEAR);
-            GLES31.glTexParameteri(GLES31.GL_TEXTURE_2D, GLES31.GL_TEXTURE_MAG_FILTER, GLES31.GL_LINEAR);
-            GLES31.glTexParameteri(GLES31.GL_TEXTURE_2D, GLES31.GL_TEXTURE_WRAP_S, GLES31.GL_CLAMP_TO_EDGE);
-            GLES31.glTexParameteri(GLES31.GL_TEXTURE_2D, GLES31.GL_TEXTURE_WRAP_T, GLES31.GL_CLAMP_TO_EDGE);
+    /**
+     * Makes the blur passes run at 1/factor of the size in each dimension, followed by an
+     * upsampling pass to the screen.  Taps stay where they are in texture space, so the
+     * result looks the same apart from the resampling.  Must be called on the render thread.
+     *
+     * @param factor 1 (no downsampling), 2, 4 or 8.
+     */
+    public void setDownsampleFactor(int factor) {
+        if (factor != 1 && factor != 2 && factor != 4 && factor != 8) {
+            throw new IllegalArgumentException("unsupported downsample factor " + factor);
+        }
+        if (factor == mDownsampleFactor) {
+            return;
+        }
+        mDownsampleFactor = factor;
+        mDownsampleLevel = Integer.numberOfTrailingZeros(factor);
+        if (mSourceTexture != null) {
+            reacquireTextures();
+        }
+        if (factor > 1) {
+            mProgramCache.prefetch(Upsampler.getKey(mUpsampleFilter), Upsampler.SOURCE);
+        }
+    }
 
-            GLES31.glFramebufferTexture2D(GLES31.GL_FRAMEBUFFER, GLES31.GL_COLOR_ATTACHMENT0, GLES31.GL_TEXTURE_2D, texture[0], 0);
+    public int getDownsampleFactor() {
+        return mDownsampleFactor;
+    }
 
-            mFbos[i] = fbo[0];
-            mTextureDataHandlers[i + 1] = texture[0];
+    /**
+     * Sets how many times the declared vertical + horizontal pair runs, each on the
+     * previous result, to trade passes for width on a given device.  The targets are
+     * re-scheduled; a chain of any length ping-pongs between two.  Must be called on the
+     * render thread.
+     */
+    public void setIterationCount(int iterationCount) {
+        if (iterationCount < 1 || iterationCount > MAX_ITERATION_COUNT) {
+            throw new IllegalArgumentException("iteration count out of range: "
+                    + iterationCount);
         }
-        mTextureDataHandlers[0] = loadTexture(mContext, R.drawable.image);
-        mFbos[mFbos.length - 1] = 0;
+        if (iterationCount == mIterationCount) {
+            return;
+        }
+        mIterationCount = iterationCount;
+        if (mSourceTexture != null) {
+            reacquireTextures();
+        }
+    }
+
+    public int getIterationCount() {
+        return mIterationCount;
+    }
+
+    /**
+     * Sets the framebuffer the last pass draws into, 0 (the default) for the screen.  Its
+     * size must match the viewport that is current when draw() is called.
+     */
+    public void setOutputFramebuffer(int framebuffer) {
+        mOutputFramebuffer = framebuffer;
     }
 
-    private int loadTexture(final Context context, final int resourceId)
-    {
-        final int[] textureHandle = new int[1];
+    protected int getOutputFramebuffer() {
+        return mOutputFramebuffer;
+    }
 
-        GLES31.glGenTextures(1, textureHandle, 0);
+    /**
+     * Sigma, in target pixels, of a Gaussian as wide as the one of BlurSquareTwoPasses at the
+     * given point of the animation: its taps are the radius apart in screen pixels with a
+     * sigma of half the radius in taps, i.e. radius * radius / 2 screen pixels.  For the
+     * algorithms that compute their kernel from sigma rather than spacing taps out.
+     */
+    protected float getSigmaPixels(float interpolationValue) {
+        float radius = getRadius() * interpolationValue;
+        return radius * radius / 2.0f / getDownsampleFactor();
+    }
 
-        if (textureHandle[0] != 0)
-        {
-            final BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inScaled = false;
+    /**
+     * Width of the ping-pong targets, i.e. the screen width divided by the downsample factor.
+     */
+    protected int getTargetWidth() {
+        return mTargetWidth;
+    }
 
-            final Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), resourceId, options);
+    protected int getTargetHeight() {
+        return mTargetHeight;
+    }
 
-            GLES31.glBindTexture(GLES31.GL_TEXTURE_2D, textureHandle[0]);
+    /**
+     * Blur radius at the end of the animation.
+     */
+    protected float getRadius() {
+        return mRadius;
+    }
 
-            GLES31.glTexParameteri(GLES31.GL_TEXTURE_2D, GLES31.GL_TEXTURE_MIN_FILTER, GLES31.GL_LINEAR_MIPMAP_LINEAR);
-            GLES31.glTexParameteri(GLES31.GL_TEXTURE_2D, GLES31.GL_TEXTURE_MAG_FILTER, GLES31.GL_LINEAR_MIPMAP_LINEAR);
-            GLES31.glTexParameteri(GLES31.GL_TEXTURE_2D, GLES31.GL_TEXTURE_WRAP_S, GLES31.GL_CLAMP_TO_EDGE);
-            GLES31.glTexParameteri(GLES31.GL_TEXTURE_2D, GLES31.GL_TEXTURE_WRAP_T, GLES31.GL_CLAMP_TO_EDGE);
+    protected GpuResourcePool getResourcePool() {
+        return mResourcePool;
+    }
 
-            GLUtils.texImage2D(GLES31.GL_TEXTURE_2D, 0, bitmap, 0);
+    protected GpuResourcePool.Texture getSourceTexture() {
+        return mSourceTexture;
+    }
 
-            GLES31.glGenerateMipmap(GLES31.GL_TEXTURE_2D);
+    /**
+     * Returns a target sized getTargetWidth() x getTargetHeight(), index below the larger
+     * of the pass graph's target count and getRequiredTargetCount().
+     */
+    protected GpuResourcePool.Texture getTarget(int index) {
+        return mTargets[index];
+    }
+
+    /**
+     * Selects {@link Upsampler#FILTER_BILINEAR} or {@link Upsampler#FILTER_BICUBIC} for
+     * scaling a downsampled result back up.
+     */
+    public void setUpsampleFilter(int filter) {
+        Upsampler.getKey(filter);       // validates
+        mUpsampleFilter = filter;
+    }
 
-            bitmap.recycle();
+    /**
+     * Whether the intermediate targets can be of this format; see setTargetFormat().
+     */
+    public boolean isTargetFormatSupported(int format) {
+        return true;
+    }
+
+    /**
+     * Sets the format the intermediate results are stored in, e.g. GL_RGB565 to halve the
+     * bandwidth of the passes, or GL_RGBA16F to keep their precision.  The format must be
+     * color-renderable on the device.  Must be called on the render thread.
+     *
+     * @param format A format accepted by {@link GpuResourcePool#acquireRenderTarget}.
+     */
+    public void setTargetFormat(int format) {
+        if (!isTargetFormatSupported(format)) {
+            throw new IllegalArgumentException("unsupported target format " + format);
+        }
+        if (format == mTargetFormat) {
+            return;
         }
+        mTargetFormat = format;
+        if (mSourceTexture != null) {
+            reacquireTextures();
+        }
+    }
+
+    public int getTargetFormat() {
+        return mTargetFormat;
+    }
+
+    /**
+     * Framebuffer objects are not shared between contexts, so unlike the textures they are
+     * looked up on the render thread, right before the first draw.
+     */
+    private void prepareFbo() {
+        for (int i = 0; i < mTargets.length; ++i) {
+            mTargetFbos[i] = mResourcePool.getFramebuffer(mTargets[i]);
+        }
+        mFbosReady = true;
+    }
 
-        if (textureHandle[0] == 0)
-        {
-            throw new RuntimeException("Error loading texture.");
+    /**
+     * Renders the pyramid levels from the image.  Render thread only.
+     */
+    private void buildPyramid() {
+        ProgramData reduceProgramData =
+                mProgramCache.get(GaussianPyramid.KEY, GaussianPyramid.SOURCE);
+        mStateCache.getViewport(mScreenViewport);
+
+        beginTiming("pyramid");
+        mPyramid.copyBaseLevel(mResourcePool.getFramebuffer(mSourceTexture), mStateCache);
+        reduceProgramData.mTextureDataHandle = mPyramid.getTexture().getName();
+        for (int level = 1; level < mPyramid.getLevelCount(); level++) {
+            reduceProgramData.mFbo = mPyramid.beginLevel(level, mStateCache);
+            drawPass(reduceProgramData, mPyramid.getLevelWidth(level - 1),
+                    mPyramid.getLevelHeight(level - 1), 0.0f, 0.0f);
         }
+        mPyramid.finish(mStateCache);
+        endTiming();
 
-        return textureHandle[0];
+        mStateCache.viewport(mScreenViewport[0], mScreenViewport[1],
+                mScreenViewport[2], mScreenViewport[3]);
     }
 
-    private void draw(ProgramData aProgramData, float interpolationValue) {
-        GLES31.glBindFramebuffer(GLES31.GL_FRAMEBUFFER, aProgramData.mFbo);
+    /**
+     * Returns the textures to the pool.  Must be called on the render thread.
+     */
+    public void release() {
+        if (mSourceTexture != null) {
+            mResourcePool.release(mSourceTexture);
+            mSourceTexture = null;
+        }
+        for (int i = 0; i < mTargets.length; ++i) {
+            mResourcePool.release(mTargets[i]);
+        }
+        mTargets = new GpuResourcePool.Texture[0];
+        if (mPyramid != null) {
+            mPyramid.release();
+            mPyramid = null;
+        }
+        mFbosReady = false;
+    }
 
-        GLES31.glUseProgram(aProgramData.mProgram);
+    /**
+     * Returns the mip level the source is sampled at, passed to the shaders as uMipLevel.
+     */
+    protected float getMipLevel(float interpolationValue) {
+        return Math.max(mMipMap * interpolationValue, mDownsampleLevel);
+    }
 
-        GLES31.glEnableVertexAttribArray(aProgramData.mPositionHandle);
-        GLES31.glEnableVertexAttribArray(aProgramData.mTexCoordHandle);
+    private void draw(ProgramData aProgramData, float interpolationValue) {
+        drawPass(aProgramData, mTargetWidth, mTargetHeight,
+                mRadius * interpolationValue / mDownsampleFactor, interpolationValue);
+    }
 
-        GLES31.glVertexAttribPointer(
-                aProgramData.mPositionHandle, 3,
-                GLES31.GL_FLOAT, false,
-                3 * 4, mVertexBuffer);
+    /**
+     * Replaces the algorithm's own state cache with one shared by everything that draws on
+     * the render thread's context.
+     */
+    public void setStateCache(GlStateCache stateCache) {
+        mStateCache = stateCache;
+    }
 
-        GLES31.glVertexAttribPointer(
-                aProgramData.mTexCoordHandle, 2,
-                GLES31.GL_FLOAT, false,
-                2 * 4, mTexCoordBuffer);
+    /**
+     * Cache through which GL bindings, the viewport and uniforms are set.
+     */
+    protected GlStateCache getStateCache() {
+        return mStateCache;
+    }
 
-        GLES31.glActiveTexture(GLES31.GL_TEXTURE0);
+    /**
+     * Times the passes of this algorithm on the GPU, or stops timing them if null.
+     */
+    public void setGpuTimer(GpuTimer gpuTimer) {
+        mGpuTimer = gpuTimer;
+    }
 
-        GLES31.glBindTexture(GLES31.GL_TEXTURE_2D, aProgramData.mTextureDataHandle);
-        GLES31.glUniform1i(aProgramData.mTextureHandle, 0);
+    /**
+     * Starts timing a pass under label, if a {@link GpuTimer} is set.  Labels should be
+     * constants, so timing doesn't allocate every frame.
+     */
+    protected void beginTiming(String label) {
+        if (mGpuTimer != null) {
+            mGpuTimer.begin(label);
+        }
+    }
 
-        GLES31.glUniform1f(aProgramData.mWidthHandle, mSize.x);
-        GLES31.glUniform1f(aProgramData.mHeightHandle, mSize.y);
-        GLES31.glUniform1f(aProgramData.mMipMapHandle, mMipMap * interpolationValue);
-        GLES31.glUniform1f(aProgramData.mRadiusHandle, mRadius * interpolationValue);
+    protected void endTiming() {
+        if (mGpuTimer != null) {
+            mGpuTimer.end();
+        }
+    }
 
-        GLES31.glDrawElements(
-                GLES31.GL_TRIANGLES, drawOrder.length,
-                GLES31.GL_UNSIGNED_SHORT, mDrawOrderBuffer);
+    /**
+     * Draws the fullscreen triangle with the program into aProgramData.mFbo, sampling
+     * aProgramData.mTextureDataHandle.  width / height are passed as uWidth / uHeight and
+     * radius as uRadius.  The {@link FullscreenTriangle} must be bound.
+     */
+    protected void drawPass(ProgramData aProgramData, float width, float height, float radius,
+            float interpolationValue) {
+        GlStateCache state = mStateCache;
+        state.bindFramebuffer(aProgramData.mFbo);
+        state.useProgram(aProgramData.mProgram);
+        state.bindTexture(0, aProgramData.mTextureDataHandle);
+        state.uniform1i(aProgramData, aProgramData.mTextureHandle, 0);
+
+        state.uniform1f(aProgramData, aProgramData.mWidthHandle, width);
+        state.uniform1f(aProgramData, aProgramData.mHeightHandle, height);
+        state.uniform1f(aProgramData, aProgramData.mMipMapHandle,
+                getMipLevel(interpolationValue));
+        state.uniform1f(aProgramData, aProgramData.mRadiusHandle, radius);
+
+        GaussianKernel kernel = getKernel();
+        if (kernel != null) {
+            GaussianKernel.Weights weights = kernel.get(mRadius * interpolationValue);
+            state.uniform1fv(aProgramData, aProgramData.mWeightsHandle, weights.mSize,
+                    weights.mWeights);
+            state.uniform1fv(aProgramData, aProgramData.mOffsetsHandle, weights.mSize,
+                    weights.mOffsets);
+        }
 
-        GLES31.glDisableVertexAttribArray(aProgramData.mPositionHandle);
-        GLES31.glDisableVertexAttribArray(aProgramData.mTexCoordHandle);
+        FullscreenTriangle.draw();
     }
 
     public void draw(float interpolationValue) {
-        mVerticalProgramData.mFbo = mFbos[0];
-        mVerticalProgramData.mTextureDataHandle = mTextureDataHandlers[0];
-        draw(mVerticalProgramData, interpolationValue);
-
-        if (isMultiPass()) {
-            mHorizontalProgramData.mFbo = mFbos[1];
-            mHorizontalProgramData.mTextureDataHandle = mTextureDataHandlers[1];
-            draw(mHorizontalProgramData, interpolationValue);
-
-            mVerticalProgramData.mFbo = mFbos[0];
-            mVerticalProgramData.mTextureDataHandle = mTextureDataHandlers[2];
-            draw(mVerticalProgramData, interpolationValue);
-            mHorizontalProgramData.mFbo = mFbos[1];
-            mHorizontalProgramData.mTextureDataHandle = mTextureDataHandlers[1];
-            draw(mHorizontalProgramData, interpolationValue);
-
-
-            mVerticalProgramData.mFbo = mFbos[0];
-            mVerticalProgramData.mTextureDataHandle = mTextureDataHandlers[2];
-            draw(mVerticalProgramData, interpolationValue);
-        }
-        mHorizontalProgramData.mFbo = mFbos[2];
-        mHorizontalProgramData.mTextureDataHandle = mTextureDataHandlers[1];
-        draw(mHorizontalProgramData, interpolationValue);
+        if (!mFbosReady) {
+            prepareFbo();
+        }
+        if (mPyramid != null && !mPyramid.isBuilt()) {
+            buildPyramid();
+        }
+
+        int tapCount = getTapCount(mRadius * interpolationValue);
+        ProgramData verticalProgramData =
+                getProgram(ShaderVariantCache.DIRECTION_VERTICAL, tapCount);
+        ProgramData horizontalProgramData =
+                getProgram(ShaderVariantCache.DIRECTION_HORIZONTAL, tapCount);
+
+        // The output may be smaller than the targets, e.g. a BlurRadiusLadder level.
+        mStateCache.getViewport(mScreenViewport);
+        mStateCache.viewport(0, 0, mTargetWidth, mTargetHeight);
+
+        PassGraph graph = mPassGraph;
+        for (int i = 0; i < graph.getPassCount(); i++) {
+            PassGraph.Pass pass = graph.getPass(i);
+            ProgramData programData =
+                    pass.mDirection == ShaderVariantCache.DIRECTION_HORIZONTAL
+                            ? horizontalProgramData : verticalProgramData;
+            if (pass.mOutput == PassGraph.OUTPUT) {
+                mStateCache.viewport(mScreenViewport[0], mScreenViewport[1],
+                        mScreenViewport[2], mScreenViewport[3]);
+                programData.mFbo = mOutputFramebuffer;
+            } else {
+                programData.mFbo = mTargetFbos[pass.mOutputTarget];
+            }
+            programData.mTextureDataHandle = pass.mInput == PassGraph.SOURCE
+                    ? mSourceHandle : mTargets[pass.mInputTarget].getName();
+            beginTiming(pass.mLabel);
+            draw(programData, interpolationValue);
+            endTiming();
+        }
+
+        if (mResultTexture != PassGraph.OUTPUT) {
+            mStateCache.viewport(mScreenViewport[0], mScreenViewport[1],
+                    mScreenViewport[2], mScreenViewport[3]);
+            drawUpsampled(mTargets[graph.getTarget(mResultTexture)].getName(),
+                    interpolationValue);
+        }
+    }
+
+    /**
+     * Draws the source image without blurring, which is what every algorithm shows at
+     * radius 0.
+     */
+    public void drawUnblurred() {
+        ProgramData copyProgramData = mProgramCache.get(
+                Upsampler.getKey(Upsampler.FILTER_BILINEAR), Upsampler.SOURCE);
+        copyProgramData.mFbo = mOutputFramebuffer;
+        copyProgramData.mTextureDataHandle = mSourceTexture.getName();
+        beginTiming("copy");
+        draw(copyProgramData, 0.0f);
+        endTiming();
+    }
+
+    /**
+     * Draws mix(lowerTexture, upperTexture, blend) into the output framebuffer with the
+     * current viewport.  Used by {@link BlurRadiusLadder} to show radii between its levels.
+     */
+    void drawCrossfade(int lowerTexture, int upperTexture, float blend) {
+        ProgramData crossfadeProgramData =
+                mProgramCache.get(BlurRadiusLadder.KEY, BlurRadiusLadder.SOURCE);
+        crossfadeProgramData.mFbo = mOutputFramebuffer;
+        crossfadeProgramData.mTextureDataHandle = lowerTexture;
+
+        mStateCache.useProgram(crossfadeProgramData.mProgram);
+        mStateCache.bindTexture(1, upperTexture);
+        mStateCache.uniform1i(crossfadeProgramData, crossfadeProgramData.mBlendTextureHandle, 1);
+        mStateCache.uniform1f(crossfadeProgramData, crossfadeProgramData.mBlendHandle, blend);
+
+        beginTiming("crossfade");
+        drawPass(crossfadeProgramData, mTargetWidth, mTargetHeight, 0.0f, 0.0f);
+        endTiming();
+    }
+
+    /**
+     * Scales a texture of the ping-pong target size up to the screen with the configured
+     * upsampling filter, or copies it without downsampling.  The caller sets the screen
+     * viewport.
+     */
+    protected void drawUpsampled(int textureHandle, float interpolationValue) {
+        int filter = mDownsampleFactor > 1 ? mUpsampleFilter : Upsampler.FILTER_BILINEAR;
+        ProgramData upsampleProgramData =
+                mProgramCache.get(Upsampler.getKey(filter), Upsampler.SOURCE);
+        upsampleProgramData.mFbo = mOutputFramebuffer;
+        upsampleProgramData.mTextureDataHandle = textureHandle;
+        beginTiming("upsample");
+        draw(upsampleProgramData, interpolationValue);
+        endTiming();
     }
 }
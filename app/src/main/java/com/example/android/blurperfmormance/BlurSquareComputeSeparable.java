@@ -0,0 +1,272 @@
+package com.example.android.blurperfmormance;
+
+import android.content.Context;
+import android.graphics.Point;
+import android.opengl.GLES31;
+
+/**
+ * Separable Gaussian computed with GLES 3.1 compute shaders.
+ * <p>
+ * Each work group covers a run of pixels along a row (horizontal pass) or a column
+ * (vertical pass).  It fetches the run plus the kernel's halo into shared memory once and
+ * convolves from there, so every source texel is fetched about once per pass instead of
+ * once per tap.  Taps are one pixel apart, with the same width as BlurSquareTwoPasses,
+ * and results are written with image stores into the ping-pong targets.
+ * <p>
+ * Requires GLES 3.1; use {@link BlurSquare#isComputeSupported()} to choose a fallback on
+ * GLES 3.0.  The fragment shader variants are never drawn, the result reaches
+ * the screen through drawUpsampled().
+ */
+public class BlurSquareComputeSeparable extends BlurSquare {
+
+    public final static int DEFAULT_WORK_GROUP_SIZE = 128;
+
+    // Enough for the widest kernel, sigma = 7 * 7 / 2 pixels, at full size.
+    private final static int MAX_TAP_COUNT = 82;
+
+    // Looked up by sigma in target pixels, see getSigmaPixels().
+    private final static GaussianKernel KERNEL =
+            new GaussianKernel(MAX_TAP_COUNT, GaussianKernel.SIGMA_RADIUS, false);
+
+    final private String vertexShaderCode =
+            "#version 300 es\n"+
+            "precision mediump float;\n" +
+            "in vec4 aPosition;\n" +
+            "in vec2 aTexCoord;\n" +
+            "out vec2 vTexCoord;\n" +
+
+            "void main()\n" +
+            "{\n" +
+            "    vTexCoord = aTexCoord;\n" +
+            "    gl_Position = aPosition;\n" +
+            "}";
+
+    final private String copyFragmentShaderCode =
+            "#version 300 es\n"+
+            "precision mediump float;\n" +
+            "uniform sampler2D uTexture;\n" +
+            "in vec2 vTexCoord;\n" +
+
+            "out vec4 glFragColor;\n" +
+
+            "void main()\n" +
+            "{\n" +
+            "    glFragColor = texture(uTexture, vTexCoord);\n" +
+            "}";
+
+    private static class ComputeProgram {
+        int mProgram;
+        int mDirectionHandle;
+        int mTapCountHandle;
+        int mSourceLodHandle;
+        int mWeightsHandle;
+    }
+
+    private int mWorkGroupSize = DEFAULT_WORK_GROUP_SIZE;
+    private ComputeProgram mComputeProgram;
+
+    public BlurSquareComputeSeparable(Context context, Point size,
+            ShaderVariantCache programCache, GpuResourcePool resourcePool) {
+        super(context, size, programCache, resourcePool);
+    }
+
+    @Override
+    protected void declarePasses(PassGraph graph, int iterationCount, int output) {
+        // draw() runs its own passes.
+    }
+
+    @Override
+    protected int getRequiredTargetCount() {
+        return 2;
+    }
+
+    @Override
+    public String getVertextShaderCode() {
+        return vertexShaderCode;
+    }
+
+    @Override
+    public String getHorizontalFragmentShaderCode(int tapCount) {
+        return copyFragmentShaderCode;
+    }
+
+    @Override
+    public String getVerticalFragmentShaderCode(int tapCount) {
+        return copyFragmentShaderCode;
+    }
+
+    /**
+     * The targets are written as rgba8 images.
+     */
+    @Override
+    public boolean isTargetFormatSupported(int format) {
+        return GpuResourcePool.getSizedFormat(format) == GLES31.GL_RGBA8;
+    }
+
+    /**
+     * Sets the number of invocations per work group, a power of two from 32 to the
+     * implementation's GL_MAX_COMPUTE_WORK_GROUP_INVOCATIONS (at least 128), whose tile
+     * also fits GL_MAX_COMPUTE_SHARED_MEMORY_SIZE (at least 16 KB, which allows up to 512).
+     * Larger groups fetch proportionally less halo.  The program is rebuilt on the next
+     * draw, which throws if either limit is exceeded.
+     */
+    public void setWorkGroupSize(int workGroupSize) {
+        if (workGroupSize < 32 || Integer.bitCount(workGroupSize) != 1) {
+            throw new IllegalArgumentException("unsupported work group size " + workGroupSize);
+        }
+        if (workGroupSize != mWorkGroupSize) {
+            releaseComputeProgram();
+            mWorkGroupSize = workGroupSize;
+        }
+    }
+
+    public int getWorkGroupSize() {
+        return mWorkGroupSize;
+    }
+
+    // A vec4 per texel of the run and its halo on both sides.
+    private static int getTileSize(int workGroupSize) {
+        return workGroupSize + 2 * MAX_TAP_COUNT;
+    }
+
+    /**
+     * Shared memory the tile of a work group takes, in bytes.
+     */
+    public static int getSharedMemorySize(int workGroupSize) {
+        return getTileSize(workGroupSize) * 16;
+    }
+
+    private static String getComputeShaderCode(int workGroupSize) {
+        int tileSize = getTileSize(workGroupSize);
+        return "#version 310 es\n" +
+                "precision highp float;\n" +
+                "precision highp int;\n" +
+                "layout(local_size_x = " + workGroupSize + ") in;\n" +
+                "layout(binding = 0) uniform highp sampler2D uSource;\n" +
+                "layout(rgba8, binding = 0) writeonly uniform highp image2D uTarget;\n" +
+                "uniform ivec2 uDirection;\n" +
+                "uniform int uTapCount;\n" +
+                "uniform float uSourceLod;\n" +
+                "uniform float uWeight[" + (MAX_TAP_COUNT + 1) + "];\n" +
+                "shared vec4 sTile[" + tileSize + "];\n" +
+
+                "void main()\n" +
+                "{\n" +
+                "    ivec2 size = imageSize(uTarget);\n" +
+                "    vec2 invSize = 1.0 / vec2(size);\n" +
+                "    ivec2 across = ivec2(1) - uDirection;\n" +
+                "    int extent = size.x * uDirection.x + size.y * uDirection.y;\n" +
+                "    int line = int(gl_WorkGroupID.y);\n" +
+                "    int start = int(gl_WorkGroupID.x) * " + workGroupSize + ";\n" +
+                "    int lid = int(gl_LocalInvocationID.x);\n" +
+
+                // Load the run and its halo, clamping to the edge like the fragment paths.
+                "    for (int i = lid; i < " + workGroupSize + " + 2 * uTapCount; i += "
+                        + workGroupSize + ") {\n" +
+                "        int t = clamp(start - uTapCount + i, 0, extent - 1);\n" +
+                "        ivec2 p = uDirection * t + across * line;\n" +
+                "        sTile[i] = textureLod(uSource, (vec2(p) + 0.5) * invSize, uSourceLod);\n" +
+                "    }\n" +
+                "    memoryBarrierShared();\n" +
+                "    barrier();\n" +
+
+                "    int t = start + lid;\n" +
+                "    if (t >= extent) {\n" +
+                "        return;\n" +
+                "    }\n" +
+                "    int c = lid + uTapCount;\n" +
+                "    vec4 color = sTile[c] * uWeight[0];\n" +
+                "    for (int k = 1; k <= uTapCount; k++) {\n" +
+                "        color += (sTile[c - k] + sTile[c + k]) * uWeight[k];\n" +
+                "    }\n" +
+                "    imageStore(uTarget, uDirection * t + across * line, color);\n" +
+                "}";
+    }
+
+    private void prepareComputeProgram() {
+        int[] maxInvocations = new int[1];
+        GLES31.glGetIntegerv(GLES31.GL_MAX_COMPUTE_WORK_GROUP_INVOCATIONS, maxInvocations, 0);
+        if (mWorkGroupSize > maxInvocations[0]) {
+            throw new IllegalStateException("work group size " + mWorkGroupSize
+                    + " exceeds GL_MAX_COMPUTE_WORK_GROUP_INVOCATIONS " + maxInvocations[0]);
+        }
+        int[] maxSharedMemory = new int[1];
+        GLES31.glGetIntegerv(GLES31.GL_MAX_COMPUTE_SHARED_MEMORY_SIZE, maxSharedMemory, 0);
+        if (getSharedMemorySize(mWorkGroupSize) > maxSharedMemory[0]) {
+            throw new IllegalStateException("work group size " + mWorkGroupSize + " needs "
+                    + getSharedMemorySize(mWorkGroupSize)
+                    + " bytes of shared memory, over GL_MAX_COMPUTE_SHARED_MEMORY_SIZE "
+                    + maxSharedMemory[0]);
+        }
+
+        ComputeProgram computeProgram = new ComputeProgram();
+        computeProgram.mProgram =
+                ProgramData.createComputeProgram(getComputeShaderCode(mWorkGroupSize));
+        computeProgram.mDirectionHandle =
+                GLES31.glGetUniformLocation(computeProgram.mProgram, "uDirection");
+        computeProgram.mTapCountHandle =
+                GLES31.glGetUniformLocation(computeProgram.mProgram, "uTapCount");
+        computeProgram.mSourceLodHandle =
+                GLES31.glGetUniformLocation(computeProgram.mProgram, "uSourceLod");
+        computeProgram.mWeightsHandle =
+                GLES31.glGetUniformLocation(computeProgram.mProgram, "uWeight");
+        mComputeProgram = computeProgram;
+    }
+
+    private void releaseComputeProgram() {
+        if (mComputeProgram != null) {
+            GLES31.glDeleteProgram(mComputeProgram.mProgram);
+            mComputeProgram = null;
+        }
+    }
+
+    @Override
+    public void release() {
+        releaseComputeProgram();
+        super.release();
+    }
+
+    /**
+     * @param sourceLod Mip level the source is read from; the downsampled first pass reads
+     *                  the image's reduced levels to avoid aliasing.
+     */
+    private void dispatch(int sourceTexture, float sourceLod, GpuResourcePool.Texture target,
+            int directionX, int directionY) {
+        getStateCache().bindTexture(0, sourceTexture);
+        GLES31.glBindImageTexture(0, target.getName(), 0, false, 0, GLES31.GL_WRITE_ONLY,
+                GLES31.GL_RGBA8);
+        GLES31.glUniform2i(mComputeProgram.mDirectionHandle, directionX, directionY);
+        GLES31.glUniform1f(mComputeProgram.mSourceLodHandle, sourceLod);
+
+        int length = directionX != 0 ? target.getWidth() : target.getHeight();
+        int lines = directionX != 0 ? target.getHeight() : target.getWidth();
+        GLES31.glDispatchCompute((length + mWorkGroupSize - 1) / mWorkGroupSize, lines, 1);
+        GLES31.glMemoryBarrier(GLES31.GL_TEXTURE_FETCH_BARRIER_BIT
+                | GLES31.GL_SHADER_IMAGE_ACCESS_BARRIER_BIT);
+    }
+
+    @Override
+    public void draw(float interpolationValue) {
+        if (mComputeProgram == null) {
+            prepareComputeProgram();
+        }
+
+        int downsampleLevel = Integer.numberOfTrailingZeros(getDownsampleFactor());
+        GaussianKernel.Weights weights = KERNEL.get(getSigmaPixels(interpolationValue));
+
+        getStateCache().useProgram(mComputeProgram.mProgram);
+        GLES31.glUniform1i(mComputeProgram.mTapCountHandle, weights.mSize - 1);
+        GLES31.glUniform1fv(mComputeProgram.mWeightsHandle, weights.mSize, weights.mWeights, 0);
+
+        GpuResourcePool.Texture horizontal = getTarget(0);
+        GpuResourcePool.Texture vertical = getTarget(1);
+        beginTiming("H");
+        dispatch(getSourceTexture().getName(), downsampleLevel, horizontal, 1, 0);
+        endTiming();
+        beginTiming("V");
+        dispatch(horizontal.getName(), 0.0f, vertical, 0, 1);
+        endTiming();
+
+        drawUpsampled(vertical.getName(), interpolationValue);
+    }
+}
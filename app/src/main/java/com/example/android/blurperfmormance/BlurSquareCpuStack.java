@@ -0,0 +1,205 @@
+package com.example.android.blurperfmormance;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Point;
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Blur on the CPU with {@link CpuStackBlur}, uploaded to a texture and drawn to the screen,
+ * so it can be compared with the GPU algorithms on the same device.
+ * <p>
+ * The image is decoded once at the size of the targets, i.e. the screen divided by the
+ * downsample factor, so downsampling makes the CPU work smaller too.  Every frame blurs it
+ * into an int array, copies that into a direct buffer and updates a texture allocated once
+ * with glTexSubImage2D(), like the GPU algorithms redo their passes every frame; stretching
+ * the texture over the screen is the only GPU work.  This class only needs GLES 2 (its shaders are GLSL ES 1.00), which is
+ * what a CPU fallback for devices without GLES 3 would be built from.
+ */
+public class BlurSquareCpuStack extends BlurSquare {
+
+    private final static int PASS_OUTPUT = ShaderVariantCache.DIRECTION_HORIZONTAL;
+
+    final private String vertexShaderCode =
+            "#version 100\n" +
+            "attribute vec4 aPosition;\n" +
+            "attribute vec2 aTexCoord;\n" +
+            "varying vec2 vTexCoord;\n" +
+
+            "void main()\n" +
+            "{\n" +
+            "    vTexCoord = aTexCoord;\n" +
+            "    gl_Position = aPosition;\n" +
+            "}";
+
+    final private String fragmentShaderCode =
+            "#version 100\n" +
+            "precision mediump float;\n" +
+            "uniform sampler2D uTexture;\n" +
+            "varying vec2 vTexCoord;\n" +
+
+            "void main()\n" +
+            "{\n" +
+            "    gl_FragColor = texture2D(uTexture, vTexCoord);\n" +
+            "}";
+
+    private final Context mContext;
+    private final ForkJoinPool mPool = new ForkJoinPool();
+    private final CpuStackBlur mBlur = new CpuStackBlur(mPool);
+
+    // Image and blur result as RGBA in memory order, at the target size.
+    private int[] mPixels;
+    private int[] mBlurred;
+    private IntBuffer mUploadBuffer;
+    private int mImageWidth;
+    private int mImageHeight;
+    private int mTexture;
+
+    public BlurSquareCpuStack(Context context, Point size, ShaderVariantCache programCache,
+            GpuResourcePool resourcePool) {
+        super(context, size, programCache, resourcePool);
+        mContext = context;
+        prepareImage();
+    }
+
+    @Override
+    protected void declarePasses(PassGraph graph, int iterationCount, int output) {
+        // draw() blurs on the CPU.
+    }
+
+    @Override
+    public String getVertextShaderCode() {
+        return vertexShaderCode;
+    }
+
+    @Override
+    public String getHorizontalFragmentShaderCode(int tapCount) {
+        return fragmentShaderCode;
+    }
+
+    @Override
+    public String getVerticalFragmentShaderCode(int tapCount) {
+        return fragmentShaderCode;
+    }
+
+    @Override
+    public boolean isTargetFormatSupported(int format) {
+        // The texture is uploaded as 8-bit RGBA whatever the format of the GPU targets.
+        return format == GLES20.GL_RGBA;
+    }
+
+    /**
+     * Decodes the image at the target size and converts it to RGBA.  May run on the worker.
+     */
+    private void prepareImage() {
+        int width = getTargetWidth();
+        int height = getTargetHeight();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inScaled = false;
+        Bitmap bitmap = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.image,
+                options);
+        if (bitmap == null) {
+            throw new RuntimeException("Error loading image.");
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+        int[] pixels = new int[width * height];
+        scaled.getPixels(pixels, 0, width, 0, 0, width, height);
+        if (scaled != bitmap) {
+            scaled.recycle();
+        }
+        bitmap.recycle();
+
+        // ARGB ints to R, G, B, A bytes, which read as ABGR ints on little-endian Android.
+        // The blur treats the channels alike, so the result uploads as is.
+        for (int i = 0; i < pixels.length; i++) {
+            int pixel = pixels[i];
+            pixels[i] = (pixel & 0xff00ff00) | ((pixel >> 16) & 0xff) | ((pixel & 0xff) << 16);
+        }
+        mPixels = pixels;
+        mBlurred = new int[pixels.length];
+        mUploadBuffer = ByteBuffer.allocateDirect(pixels.length * 4)
+                .order(ByteOrder.nativeOrder()).asIntBuffer();
+        mImageWidth = width;
+        mImageHeight = height;
+    }
+
+    /**
+     * Allocates the texture the results are uploaded to.  Render thread only.
+     */
+    private void prepareTexture() {
+        int[] names = new int[1];
+        GLES20.glGenTextures(1, names, 0);
+        mTexture = names[0];
+        getStateCache().bindTexture(0, mTexture);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+                GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
+                GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+                GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+                GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, mImageWidth, mImageHeight,
+                0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+    }
+
+    private void releaseTexture() {
+        if (mTexture != 0) {
+            GLES20.glDeleteTextures(1, new int[] { mTexture }, 0);
+            getStateCache().invalidate();
+            mTexture = 0;
+        }
+    }
+
+    @Override
+    public void setDownsampleFactor(int factor) {
+        int previousFactor = getDownsampleFactor();
+        super.setDownsampleFactor(factor);
+        if (factor != previousFactor) {
+            releaseTexture();
+            mPixels = null;
+        }
+    }
+
+    @Override
+    public void release() {
+        releaseTexture();
+        mPool.shutdown();
+        super.release();
+    }
+
+    @Override
+    public void draw(float interpolationValue) {
+        if (mPixels == null) {
+            prepareImage();
+        }
+        if (mTexture == 0) {
+            prepareTexture();
+        }
+
+        mBlur.blur(mPixels, mBlurred, mImageWidth, mImageHeight,
+                getSigmaPixels(interpolationValue));
+        mUploadBuffer.position(0);
+        mUploadBuffer.put(mBlurred);
+        mUploadBuffer.position(0);
+
+        beginTiming("upload");
+        getStateCache().bindTexture(0, mTexture);
+        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, mImageWidth, mImageHeight,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, mUploadBuffer);
+        endTiming();
+
+        ProgramData outputProgramData = getProgram(PASS_OUTPUT, 0);
+        outputProgramData.mFbo = getOutputFramebuffer();
+        outputProgramData.mTextureDataHandle = mTexture;
+        beginTiming("output");
+        drawPass(outputProgramData, mImageWidth, mImageHeight, 0.0f, interpolationValue);
+        endTiming();
+    }
+}
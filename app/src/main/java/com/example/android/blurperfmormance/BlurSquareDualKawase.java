@@ -0,0 +1,228 @@
+package com.example.android.blurperfmormance;
+
+import android.content.Context;
+import android.graphics.Point;
+
+/**
+ * Dual Kawase blur: the image is filtered down a pyramid of half-size targets and back up
+ * again, with a 5-tap kernel on the way down and an 8-tap kernel on the way up.  The cost
+ * is dominated by the first levels and hardly grows with the radius, which only widens the
+ * sampling offset.
+ * <p>
+ * The down shader is served as the "horizontal" variant and the up shader as the
+ * "vertical" one, so both go through the same program cache as the separable algorithms.
+ */
+public class BlurSquareDualKawase extends BlurSquare {
+
+    public final static int DEFAULT_LEVEL_COUNT = 4;
+    public final static int MAX_LEVEL_COUNT = 8;
+
+    // Maps the animated blur radius to the sampling offset, in half texels of the sampled
+    // level.  Offsets much beyond 3 start to show the kernel's diamond pattern.
+    private final static float OFFSET_PER_RADIUS = 0.5f;
+
+    private final static int PASS_DOWN = ShaderVariantCache.DIRECTION_HORIZONTAL;
+    private final static int PASS_UP = ShaderVariantCache.DIRECTION_VERTICAL;
+
+    final private String vertexShaderCode =
+            "#version 300 es\n"+
+            "precision mediump float;\n" +
+            "in vec4 aPosition;\n" +
+            "in vec2 aTexCoord;\n" +
+            "out vec2 vTexCoord;\n" +
+            "uniform float uRadius;\n" +
+            "uniform float uWidth;\n" +
+            "uniform float uHeight;\n" +
+            "out vec2 vHalfPixel;\n" +
+
+            "void main()\n" +
+            "{\n" +
+            "    vTexCoord = aTexCoord;\n" +
+            "    gl_Position = aPosition;\n" +
+            "    vHalfPixel = uRadius * 0.5 / vec2(uWidth, uHeight);\n" +
+            "}";
+
+    private int mLevelCount = DEFAULT_LEVEL_COUNT;
+    private GpuResourcePool.Texture[] mLevels;
+    private final int[] mScreenViewport = new int[4];
+
+    public BlurSquareDualKawase(Context context, Point size, ShaderVariantCache programCache,
+            GpuResourcePool resourcePool) {
+        super(context, size, programCache, resourcePool);
+    }
+
+    @Override
+    protected void declarePasses(PassGraph graph, int iterationCount, int output) {
+        // draw() runs its own passes.
+    }
+
+    @Override
+    public String getVertextShaderCode() {
+        return vertexShaderCode;
+    }
+
+    @Override
+    public String getHorizontalFragmentShaderCode(int tapCount) {
+        return "#version 300 es\n"+
+                "precision mediump float;\n" +
+                "uniform sampler2D uTexture;\n" +
+                "in vec2 vTexCoord;\n" +
+                "in vec2 vHalfPixel;\n" +
+
+                "out vec4 glFragColor;\n" +
+
+                "void main()\n" +
+                "{\n" +
+                "    vec4 color = texture(uTexture, vTexCoord) * 4.0;\n" +
+                "    color += texture(uTexture, vTexCoord - vHalfPixel);\n" +
+                "    color += texture(uTexture, vTexCoord + vHalfPixel);\n" +
+                "    color += texture(uTexture, vTexCoord + vec2(vHalfPixel.x, -vHalfPixel.y));\n" +
+                "    color += texture(uTexture, vTexCoord - vec2(vHalfPixel.x, -vHalfPixel.y));\n" +
+                "    glFragColor = color / 8.0;\n" +
+                "}";
+    }
+
+    @Override
+    public String getVerticalFragmentShaderCode(int tapCount) {
+        return "#version 300 es\n"+
+                "precision mediump float;\n" +
+                "uniform sampler2D uTexture;\n" +
+                "in vec2 vTexCoord;\n" +
+                "in vec2 vHalfPixel;\n" +
+
+                "out vec4 glFragColor;\n" +
+
+                "void main()\n" +
+                "{\n" +
+                "    vec4 color = texture(uTexture, vTexCoord + vec2(-vHalfPixel.x * 2.0, 0.0));\n" +
+                "    color += texture(uTexture, vTexCoord + vec2(-vHalfPixel.x, vHalfPixel.y)) * 2.0;\n" +
+                "    color += texture(uTexture, vTexCoord + vec2(0.0, vHalfPixel.y * 2.0));\n" +
+                "    color += texture(uTexture, vTexCoord + vec2(vHalfPixel.x, vHalfPixel.y)) * 2.0;\n" +
+                "    color += texture(uTexture, vTexCoord + vec2(vHalfPixel.x * 2.0, 0.0));\n" +
+                "    color += texture(uTexture, vTexCoord + vec2(vHalfPixel.x, -vHalfPixel.y)) * 2.0;\n" +
+                "    color += texture(uTexture, vTexCoord + vec2(0.0, -vHalfPixel.y * 2.0));\n" +
+                "    color += texture(uTexture, vTexCoord + vec2(-vHalfPixel.x, -vHalfPixel.y)) * 2.0;\n" +
+                "    glFragColor = color / 12.0;\n" +
+                "}";
+    }
+
+    /**
+     * Sets the number of pyramid levels below the target size.  More levels give a wider
+     * blur at the same offset.  Must be called on the render thread.
+     */
+    public void setLevelCount(int levelCount) {
+        if (levelCount < 1 || levelCount > MAX_LEVEL_COUNT) {
+            throw new IllegalArgumentException("level count out of range: " + levelCount);
+        }
+        if (levelCount != mLevelCount) {
+            releaseLevels();
+            mLevelCount = levelCount;
+        }
+    }
+
+    public int getLevelCount() {
+        return mLevelCount;
+    }
+
+    /**
+     * Acquires level 1..mLevelCount at half the size of the previous one.  mLevels[0] is
+     * the source image.  Levels share pool targets with other algorithms of the same size.
+     */
+    private void prepareLevels() {
+        GpuResourcePool resourcePool = getResourcePool();
+        mLevels = new GpuResourcePool.Texture[mLevelCount + 1];
+        mLevels[0] = getSourceTexture();
+        int width = getTargetWidth();
+        int height = getTargetHeight();
+        for (int i = 1; i <= mLevelCount; i++) {
+            width = Math.max(1, width / 2);
+            height = Math.max(1, height / 2);
+            mLevels[i] = resourcePool.acquireRenderTarget(width, height, getTargetFormat(), 0);
+        }
+    }
+
+    private void releaseLevels() {
+        if (mLevels == null) {
+            return;
+        }
+        for (int i = 1; i < mLevels.length; i++) {
+            getResourcePool().release(mLevels[i]);
+        }
+        mLevels = null;
+    }
+
+    @Override
+    public void setDownsampleFactor(int factor) {
+        int previousFactor = getDownsampleFactor();
+        super.setDownsampleFactor(factor);
+        if (factor != previousFactor) {
+            releaseLevels();
+        }
+    }
+
+    @Override
+    public void setTargetFormat(int format) {
+        int previousFormat = getTargetFormat();
+        super.setTargetFormat(format);
+        if (format != previousFormat) {
+            releaseLevels();
+        }
+    }
+
+    @Override
+    public void release() {
+        releaseLevels();
+        super.release();
+    }
+
+    @Override
+    public void draw(float interpolationValue) {
+        if (mLevels == null) {
+            prepareLevels();
+        }
+        GpuResourcePool resourcePool = getResourcePool();
+        float offset = getRadius() * interpolationValue * OFFSET_PER_RADIUS;
+
+        // No offset means no blur; skip the pyramid so the animation starts sharp.
+        int levelCount = offset > 0.0f ? mLevelCount : 0;
+
+        GlStateCache state = getStateCache();
+        state.getViewport(mScreenViewport);
+
+        ProgramData downProgramData = getProgram(PASS_DOWN, 0);
+        for (int i = 1; i <= levelCount; i++) {
+            GpuResourcePool.Texture source = mLevels[i - 1];
+            GpuResourcePool.Texture target = mLevels[i];
+            state.viewport(0, 0, target.getWidth(), target.getHeight());
+            downProgramData.mFbo = resourcePool.getFramebuffer(target);
+            downProgramData.mTextureDataHandle = source.getName();
+            beginTiming("down");
+            drawPass(downProgramData, source.getWidth(), source.getHeight(), offset,
+                    interpolationValue);
+            endTiming();
+        }
+
+        ProgramData upProgramData = getProgram(PASS_UP, 0);
+        for (int i = levelCount; i > 1; i--) {
+            GpuResourcePool.Texture source = mLevels[i];
+            GpuResourcePool.Texture target = mLevels[i - 1];
+            state.viewport(0, 0, target.getWidth(), target.getHeight());
+            upProgramData.mFbo = resourcePool.getFramebuffer(target);
+            upProgramData.mTextureDataHandle = source.getName();
+            beginTiming("up");
+            drawPass(upProgramData, source.getWidth(), source.getHeight(), offset,
+                    interpolationValue);
+            endTiming();
+        }
+
+        GpuResourcePool.Texture source = mLevels[Math.min(levelCount, 1)];
+        state.viewport(mScreenViewport[0], mScreenViewport[1],
+                mScreenViewport[2], mScreenViewport[3]);
+        upProgramData.mFbo = getOutputFramebuffer();
+        upProgramData.mTextureDataHandle = source.getName();
+        beginTiming("output");
+        drawPass(upProgramData, source.getWidth(), source.getHeight(), offset,
+                interpolationValue);
+        endTiming();
+    }
+}
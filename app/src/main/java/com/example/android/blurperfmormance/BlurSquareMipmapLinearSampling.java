@@ -78,8 +78,14 @@ public class BlurSquareMipmapLinearSampling extends BlurSquare {
             "    glFragColor = color;\n" +
             "}";
 
-    public BlurSquareMipmapLinearSampling(Context context, Point size) {
-        super(context, size);
+    public BlurSquareMipmapLinearSampling(Context context, Point size, ShaderVariantCache programCache,
+            GpuResourcePool resourcePool) {
+        super(context, size, programCache, resourcePool);
+    }
+
+    @Override
+    protected boolean needsMipmaps() {
+        return true;
     }
 
     @Override
@@ -88,12 +94,12 @@ public class BlurSquareMipmapLinearSampling extends BlurSquare {
     }
 
     @Override
-    public String getHorizontalFragmentShaderCode() {
+    public String getHorizontalFragmentShaderCode(int tapCount) {
         return horFragmentShaderCode;
     }
 
     @Override
-    public String getVerticalFragmentShaderCode() {
+    public String getVerticalFragmentShaderCode(int tapCount) {
         return verFragmentShaderCode;
     }
 }
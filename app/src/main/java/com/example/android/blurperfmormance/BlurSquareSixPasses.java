@@ -5,7 +5,10 @@ import android.graphics.Point;
 
 public class BlurSquareSixPasses extends BlurSquare {
 
-    private final static float MAX_BLUR_RADIUS_DEFAULT = 5.0f;
+    private final static int MAX_BLUR_RADIUS_DEFAULT = 5;
+
+    private final static GaussianKernel KERNEL =
+            new GaussianKernel(MAX_BLUR_RADIUS_DEFAULT, GaussianKernel.SIGMA_THIRD_RADIUS, false);
 
     final private String vertexShaderCode =
             "#version 300 es\n"+
@@ -13,7 +16,6 @@ public class BlurSquareSixPasses extends BlurSquare {
             "in vec4 aPosition;\n" +
             "in vec2 aTexCoord;\n" +
             "out vec2 vTexCoord;\n" +
-            "out float vWeight[16];\n" +
             "uniform float uMipLevel;\n" +
             "uniform float uRadius;\n" +
             "uniform float uWidth;\n" +
@@ -21,84 +23,22 @@ public class BlurSquareSixPasses extends BlurSquare {
             "out float vWidthOffset;\n" +
             "out float vHeightOffset;\n" +
 
-            "void calculateWeights(float aRadius)\n" +
-            "{\n" +
-            "    int r = int(aRadius);\n" +
-            "    float sigma = uRadius / 3.0;\n" +
-            "    float sumOfWeights = 0.0;\n" +
-            "    for (int i = 0; i < r + 1; i++) {\n" +
-            "        vWeight[i] = (1.0 / sqrt(2.0 * 3.14 * float(sigma * sigma))) * exp(-float(i * i) / (2.0 * float(sigma * sigma)));\n" +
-            "        if (i == 0) {\n" +
-            "            sumOfWeights += vWeight[i];\n" +
-            "        } else {\n" +
-            "            sumOfWeights += 2.0 * vWeight[i];\n" +
-            "        }\n" +
-            "    }\n" +
-            "    for (int i = 0; i < r + 1; i++) {\n" +
-            "        vWeight[i] = vWeight[i] / sumOfWeights;\n" +
-            "    }\n" +
-            "}\n" +
-
             "void main()\n" +
             "{\n" +
             "    vTexCoord = aTexCoord;\n" +
             "    gl_Position = aPosition;\n" +
             "    vWidthOffset = uRadius / uWidth;\n" +
             "    vHeightOffset = uRadius / uHeight;\n" +
-            "    calculateWeights(" + MAX_BLUR_RADIUS_DEFAULT + ");\n" +
-            "}";
-
-    final private String horFragmentShaderCode =
-            "#version 300 es\n"+
-            "precision mediump float;\n" +
-            "uniform sampler2D uTexture;\n" +
-            "uniform float uRadius;\n" +
-            "in float vWeight[16];\n" +
-            "in vec2 vTexCoord;\n" +
-            "in float vWidthOffset;\n" +
-            "in float vHeightOffset;\n" +
-
-            "out vec4 glFragColor;\n" +
-
-            "void main()\n" +
-            "{\n" +
-            "    vec4 color = vec4(0.0);\n" +
-            "    for (int i = 1; i <= int(" + MAX_BLUR_RADIUS_DEFAULT + "); i++) {\n" +
-            "       color += texture(uTexture, vTexCoord + vec2(float(i) * vWidthOffset, 0.0)) * vWeight[i];\n"+
-            "       color += texture(uTexture, vTexCoord - vec2(float(i) * vWidthOffset, 0.0)) * vWeight[i];\n"+
-            "    }\n"+
-            "    color += texture(uTexture, vTexCoord) * vWeight[0];\n" +
-            "    glFragColor = color;\n" +
             "}";
 
+    public BlurSquareSixPasses(Context context, Point size, ShaderVariantCache programCache,
+            GpuResourcePool resourcePool) {
+        super(context, size, programCache, resourcePool);
+    }
 
-    final private String verFragmentShaderCode =
-            "#version 300 es\n"+
-            "precision mediump float;\n" +
-            "uniform sampler2D uTexture;\n" +
-            "uniform float uRadius;\n" +
-            "uniform float saturation;\n" +
-
-            "in vec2 vTexCoord;\n" +
-            "in float vWeight[16];" +
-            "in float vWidthOffset;\n" +
-            "in float vHeightOffset;\n" +
-
-            "out vec4 glFragColor;\n" +
-
-            "void main()\n" +
-            "{\n" +
-            "    vec4 color = vec4(0.0);\n" +
-            "    for (int i = 1; i <= int(" + MAX_BLUR_RADIUS_DEFAULT + "); i++) {\n" +
-            "       color += texture(uTexture, vTexCoord + vec2(0.0, float(i) * vHeightOffset)) * vWeight[i];\n" +
-            "       color += texture(uTexture, vTexCoord - vec2(0.0, float(i) * vHeightOffset)) * vWeight[i];\n" +
-            "    }\n"+
-            "    color += texture(uTexture, vTexCoord) * vWeight[0];\n" +
-            "    glFragColor = color;\n" +
-            "}";
-
-    public BlurSquareSixPasses(Context context, Point size) {
-        super(context, size);
+    @Override
+    protected GaussianKernel getKernel() {
+        return KERNEL;
     }
 
     @Override
@@ -107,17 +47,55 @@ public class BlurSquareSixPasses extends BlurSquare {
     }
 
     @Override
-    public String getHorizontalFragmentShaderCode() {
-        return horFragmentShaderCode;
+    public String getHorizontalFragmentShaderCode(int tapCount) {
+        return "#version 300 es\n"+
+                "precision mediump float;\n" +
+                "uniform sampler2D uTexture;\n" +
+                "uniform float uRadius;\n" +
+                "uniform float uWeight[" + (tapCount + 1) + "];\n" +
+                "in vec2 vTexCoord;\n" +
+                "in float vWidthOffset;\n" +
+                "in float vHeightOffset;\n" +
+
+                "out vec4 glFragColor;\n" +
+
+                "void main()\n" +
+                "{\n" +
+                "    vec4 color = texture(uTexture, vTexCoord) * uWeight[0];\n" +
+                unrollTaps(tapCount,
+                "    color += texture(uTexture, vTexCoord + vec2(%1$d.0 * vWidthOffset, 0.0)) * uWeight[%1$d];\n" +
+                "    color += texture(uTexture, vTexCoord - vec2(%1$d.0 * vWidthOffset, 0.0)) * uWeight[%1$d];\n") +
+                "    glFragColor = color;\n" +
+                "}";
     }
 
     @Override
-    public String getVerticalFragmentShaderCode() {
-        return verFragmentShaderCode;
+    public String getVerticalFragmentShaderCode(int tapCount) {
+        return "#version 300 es\n"+
+                "precision mediump float;\n" +
+                "uniform sampler2D uTexture;\n" +
+                "uniform float uRadius;\n" +
+                "uniform float saturation;\n" +
+
+                "in vec2 vTexCoord;\n" +
+                "uniform float uWeight[" + (tapCount + 1) + "];\n" +
+                "in float vWidthOffset;\n" +
+                "in float vHeightOffset;\n" +
+
+                "out vec4 glFragColor;\n" +
+
+                "void main()\n" +
+                "{\n" +
+                "    vec4 color = texture(uTexture, vTexCoord) * uWeight[0];\n" +
+                unrollTaps(tapCount,
+                "    color += texture(uTexture, vTexCoord + vec2(0.0, %1$d.0 * vHeightOffset)) * uWeight[%1$d];\n" +
+                "    color += texture(uTexture, vTexCoord - vec2(0.0, %1$d.0 * vHeightOffset)) * uWeight[%1$d];\n") +
+                "    glFragColor = color;\n" +
+                "}";
     }
 
     @Override
-    protected boolean isMultiPass() {
-        return true;
+    protected int getDefaultIterationCount() {
+        return 3;
     }
 }
@@ -0,0 +1,336 @@
+package com.example.android.blurperfmormance;
+
+import android.content.Context;
+import android.graphics.Point;
+import android.opengl.GLES31;
+
+/**
+ * Gaussian approximated by stacked box filters, each evaluated from a summed-area table in
+ * four fetches, so the cost per pixel does not depend on the radius.
+ * <p>
+ * For every box the table is rebuilt from the previous result with two compute passes:
+ * a parallel prefix sum along the rows, then along the columns.  Sums are kept as exact
+ * 32-bit integers of the 8-bit channels (GL_RGBA32UI), which cannot lose precision like a
+ * float table on a full-screen image would.  The rows and the columns pass read and write
+ * different textures, since GLES 3.1 only allows read-write images in 32-bit single channel
+ * formats.
+ * <p>
+ * Requires GLES 3.1; use {@link BlurSquare#isComputeSupported()} to choose a fallback on
+ * GLES 3.0.  Both program variants of the cache are the box filter, only the horizontal one
+ * is drawn.
+ */
+public class BlurSquareSummedAreaTable extends BlurSquare {
+
+    public final static int DEFAULT_BOX_COUNT = 3;
+    public final static int MAX_BOX_COUNT = 3;
+
+    private final static int PASS_BOX = ShaderVariantCache.DIRECTION_HORIZONTAL;
+
+    // Prefix sums along the rows.  One work group per row; every invocation sums a chunk
+    // of the row, the chunk totals are scanned in shared memory and each invocation then
+    // writes its chunk offset by the totals before it.  128 invocations is the minimum
+    // every GLES 3.1 implementation supports.
+    private final static String ROWS_COMPUTE_SHADER_CODE =
+            "#version 310 es\n" +
+            "precision highp float;\n" +
+            "precision highp int;\n" +
+            "layout(local_size_x = 128) in;\n" +
+            "layout(binding = 0) uniform highp sampler2D uSource;\n" +
+            "layout(rgba32ui, binding = 0) writeonly uniform highp uimage2D uRowSums;\n" +
+            "shared uvec4 sPartial[128];\n" +
+
+            "uvec4 load(ivec2 p, vec2 invSize)\n" +
+            "{\n" +
+            "    vec4 color = textureLod(uSource, (vec2(p) + 0.5) * invSize, 0.0);\n" +
+            "    return uvec4(color * 255.0 + 0.5);\n" +
+            "}\n" +
+
+            "void main()\n" +
+            "{\n" +
+            "    ivec2 size = imageSize(uRowSums);\n" +
+            "    vec2 invSize = 1.0 / vec2(size);\n" +
+            "    int y = int(gl_WorkGroupID.x);\n" +
+            "    int lid = int(gl_LocalInvocationID.x);\n" +
+            "    int chunk = (size.x + 127) / 128;\n" +
+            "    int start = lid * chunk;\n" +
+            "    int end = min(start + chunk, size.x);\n" +
+
+            "    uvec4 sum = uvec4(0u);\n" +
+            "    for (int x = start; x < end; x++) {\n" +
+            "        sum += load(ivec2(x, y), invSize);\n" +
+            "    }\n" +
+            "    sPartial[lid] = sum;\n" +
+            "    memoryBarrierShared();\n" +
+            "    barrier();\n" +
+
+            "    for (int offset = 1; offset < 128; offset <<= 1) {\n" +
+            "        uvec4 other = lid >= offset ? sPartial[lid - offset] : uvec4(0u);\n" +
+            "        memoryBarrierShared();\n" +
+            "        barrier();\n" +
+            "        sPartial[lid] += other;\n" +
+            "        memoryBarrierShared();\n" +
+            "        barrier();\n" +
+            "    }\n" +
+
+            "    uvec4 prefix = lid > 0 ? sPartial[lid - 1] : uvec4(0u);\n" +
+            "    for (int x = start; x < end; x++) {\n" +
+            "        prefix += load(ivec2(x, y), invSize);\n" +
+            "        imageStore(uRowSums, ivec2(x, y), prefix);\n" +
+            "    }\n" +
+            "}";
+
+    // Prefix sums of the row sums along the columns, same scheme with one work group per
+    // column.
+    private final static String COLUMNS_COMPUTE_SHADER_CODE =
+            "#version 310 es\n" +
+            "precision highp float;\n" +
+            "precision highp int;\n" +
+            "layout(local_size_x = 128) in;\n" +
+            "layout(rgba32ui, binding = 0) readonly uniform highp uimage2D uRowSums;\n" +
+            "layout(rgba32ui, binding = 1) writeonly uniform highp uimage2D uTable;\n" +
+            "shared uvec4 sPartial[128];\n" +
+
+            "void main()\n" +
+            "{\n" +
+            "    ivec2 size = imageSize(uRowSums);\n" +
+            "    int x = int(gl_WorkGroupID.x);\n" +
+            "    int lid = int(gl_LocalInvocationID.x);\n" +
+            "    int chunk = (size.y + 127) / 128;\n" +
+            "    int start = lid * chunk;\n" +
+            "    int end = min(start + chunk, size.y);\n" +
+
+            "    uvec4 sum = uvec4(0u);\n" +
+            "    for (int y = start; y < end; y++) {\n" +
+            "        sum += imageLoad(uRowSums, ivec2(x, y));\n" +
+            "    }\n" +
+            "    sPartial[lid] = sum;\n" +
+            "    memoryBarrierShared();\n" +
+            "    barrier();\n" +
+
+            "    for (int offset = 1; offset < 128; offset <<= 1) {\n" +
+            "        uvec4 other = lid >= offset ? sPartial[lid - offset] : uvec4(0u);\n" +
+            "        memoryBarrierShared();\n" +
+            "        barrier();\n" +
+            "        sPartial[lid] += other;\n" +
+            "        memoryBarrierShared();\n" +
+            "        barrier();\n" +
+            "    }\n" +
+
+            "    uvec4 prefix = lid > 0 ? sPartial[lid - 1] : uvec4(0u);\n" +
+            "    for (int y = start; y < end; y++) {\n" +
+            "        prefix += imageLoad(uRowSums, ivec2(x, y));\n" +
+            "        imageStore(uTable, ivec2(x, y), prefix);\n" +
+            "    }\n" +
+            "}";
+
+    final private String vertexShaderCode =
+            "#version 300 es\n"+
+            "precision mediump float;\n" +
+            "in vec4 aPosition;\n" +
+            "in vec2 aTexCoord;\n" +
+            "out vec2 vTexCoord;\n" +
+
+            "void main()\n" +
+            "{\n" +
+            "    vTexCoord = aTexCoord;\n" +
+            "    gl_Position = aPosition;\n" +
+            "}";
+
+    // Box of half width uRadius around the pixel, clipped to the image and normalized by
+    // the clipped area.  Unsigned wrap-around cancels out in the four-corner difference.
+    final private String boxFragmentShaderCode =
+            "#version 300 es\n"+
+            "precision highp float;\n" +
+            "precision highp int;\n" +
+            "uniform highp usampler2D uTexture;\n" +
+            "uniform float uWidth;\n" +
+            "uniform float uHeight;\n" +
+            "uniform float uRadius;\n" +
+            "in vec2 vTexCoord;\n" +
+
+            "out vec4 glFragColor;\n" +
+
+            "uvec4 table(ivec2 p)\n" +
+            "{\n" +
+            "    return (p.x < 0 || p.y < 0) ? uvec4(0u) : texelFetch(uTexture, p, 0);\n" +
+            "}\n" +
+
+            "void main()\n" +
+            "{\n" +
+            "    ivec2 size = ivec2(uWidth, uHeight);\n" +
+            "    ivec2 p = min(ivec2(vTexCoord * vec2(size)), size - 1);\n" +
+            "    int r = int(uRadius);\n" +
+            "    ivec2 lo = max(p - r, ivec2(0)) - 1;\n" +
+            "    ivec2 hi = min(p + r, size - 1);\n" +
+            "    uvec4 sum = table(hi) - table(ivec2(lo.x, hi.y)) - table(ivec2(hi.x, lo.y))\n" +
+            "            + table(lo);\n" +
+            "    float area = float((hi.x - lo.x) * (hi.y - lo.y));\n" +
+            "    glFragColor = vec4(sum) / (255.0 * area);\n" +
+            "}";
+
+    private final int mRowsProgram;
+    private final int mColumnsProgram;
+    private int mBoxCount = DEFAULT_BOX_COUNT;
+    private final int[] mBoxSizes = new int[MAX_BOX_COUNT];
+    private GpuResourcePool.Texture[] mTables;      // row sums, summed-area table
+    private final int[] mScreenViewport = new int[4];
+
+    public BlurSquareSummedAreaTable(Context context, Point size,
+            ShaderVariantCache programCache, GpuResourcePool resourcePool) {
+        super(context, size, programCache, resourcePool);
+        mRowsProgram = ProgramData.createComputeProgram(ROWS_COMPUTE_SHADER_CODE);
+        mColumnsProgram = ProgramData.createComputeProgram(COLUMNS_COMPUTE_SHADER_CODE);
+    }
+
+    @Override
+    protected void declarePasses(PassGraph graph, int iterationCount, int output) {
+        // draw() runs its own passes.
+    }
+
+    @Override
+    protected int getRequiredTargetCount() {
+        return 2;
+    }
+
+    @Override
+    public String getVertextShaderCode() {
+        return vertexShaderCode;
+    }
+
+    @Override
+    public String getHorizontalFragmentShaderCode(int tapCount) {
+        return boxFragmentShaderCode;
+    }
+
+    @Override
+    public String getVerticalFragmentShaderCode(int tapCount) {
+        return boxFragmentShaderCode;
+    }
+
+    /**
+     * Sets the number of stacked boxes, 1 to {@link #MAX_BOX_COUNT}.  Three are visually
+     * close to a Gaussian, each one costs a table rebuild.
+     */
+    public void setBoxCount(int boxCount) {
+        if (boxCount < 1 || boxCount > MAX_BOX_COUNT) {
+            throw new IllegalArgumentException("box count out of range: " + boxCount);
+        }
+        mBoxCount = boxCount;
+    }
+
+    /**
+     * Computes the odd widths of boxCount stacked box filters whose combined variance is
+     * closest to sigma^2 (Kovesi, "Fast almost-Gaussian filtering").
+     */
+    static void getBoxSizes(float sigma, int boxCount, int[] sizes) {
+        double variance = 12.0 * sigma * sigma;
+        int lower = (int) Math.floor(Math.sqrt(variance / boxCount + 1.0));
+        if (lower % 2 == 0) {
+            lower--;
+        }
+        int upper = lower + 2;
+        long lowerCount = Math.round((variance - boxCount * lower * lower - 4.0 * boxCount * lower
+                - 3.0 * boxCount) / (-4.0 * lower - 4.0));
+        for (int i = 0; i < boxCount; i++) {
+            sizes[i] = i < lowerCount ? lower : upper;
+        }
+    }
+
+    private void prepareTables() {
+        GpuResourcePool resourcePool = getResourcePool();
+        mTables = new GpuResourcePool.Texture[2];
+        for (int i = 0; i < mTables.length; i++) {
+            mTables[i] = resourcePool.acquireStorage(getTargetWidth(), getTargetHeight(),
+                    GLES31.GL_RGBA32UI, i);
+        }
+    }
+
+    private void releaseTables() {
+        if (mTables == null) {
+            return;
+        }
+        for (GpuResourcePool.Texture table : mTables) {
+            getResourcePool().release(table);
+        }
+        mTables = null;
+    }
+
+    @Override
+    public void setDownsampleFactor(int factor) {
+        int previousFactor = getDownsampleFactor();
+        super.setDownsampleFactor(factor);
+        if (factor != previousFactor) {
+            releaseTables();
+        }
+    }
+
+    @Override
+    public void release() {
+        releaseTables();
+        GLES31.glDeleteProgram(mRowsProgram);
+        GLES31.glDeleteProgram(mColumnsProgram);
+        super.release();
+    }
+
+    private void buildTable(int sourceTexture) {
+        GlStateCache state = getStateCache();
+        state.useProgram(mRowsProgram);
+        state.bindTexture(0, sourceTexture);
+        GLES31.glBindImageTexture(0, mTables[0].getName(), 0, false, 0, GLES31.GL_WRITE_ONLY,
+                GLES31.GL_RGBA32UI);
+        GLES31.glDispatchCompute(getTargetHeight(), 1, 1);
+        GLES31.glMemoryBarrier(GLES31.GL_SHADER_IMAGE_ACCESS_BARRIER_BIT);
+
+        state.useProgram(mColumnsProgram);
+        GLES31.glBindImageTexture(0, mTables[0].getName(), 0, false, 0, GLES31.GL_READ_ONLY,
+                GLES31.GL_RGBA32UI);
+        GLES31.glBindImageTexture(1, mTables[1].getName(), 0, false, 0, GLES31.GL_WRITE_ONLY,
+                GLES31.GL_RGBA32UI);
+        GLES31.glDispatchCompute(getTargetWidth(), 1, 1);
+        GLES31.glMemoryBarrier(GLES31.GL_SHADER_IMAGE_ACCESS_BARRIER_BIT
+                | GLES31.GL_TEXTURE_FETCH_BARRIER_BIT);
+    }
+
+    @Override
+    public void draw(float interpolationValue) {
+        if (mTables == null) {
+            prepareTables();
+        }
+        GpuResourcePool resourcePool = getResourcePool();
+
+        getBoxSizes(getSigmaPixels(interpolationValue), mBoxCount, mBoxSizes);
+
+        boolean upsample = getDownsampleFactor() > 1;
+        getStateCache().getViewport(mScreenViewport);
+        getStateCache().viewport(0, 0, getTargetWidth(), getTargetHeight());
+
+        ProgramData boxProgramData = getProgram(PASS_BOX, 0);
+        int source = getSourceTexture().getName();
+        for (int i = 0; i < mBoxCount; i++) {
+            beginTiming("table");
+            buildTable(source);
+            endTiming();
+
+            GpuResourcePool.Texture target = getTarget(i % 2);
+            if (i == mBoxCount - 1 && !upsample) {
+                getStateCache().viewport(mScreenViewport[0], mScreenViewport[1],
+                        mScreenViewport[2], mScreenViewport[3]);
+                boxProgramData.mFbo = getOutputFramebuffer();
+            } else {
+                boxProgramData.mFbo = resourcePool.getFramebuffer(target);
+            }
+            boxProgramData.mTextureDataHandle = mTables[1].getName();
+            beginTiming("box");
+            drawPass(boxProgramData, getTargetWidth(), getTargetHeight(),
+                    (mBoxSizes[i] - 1) / 2, interpolationValue);
+            endTiming();
+            source = target.getName();
+        }
+
+        if (upsample) {
+            getStateCache().viewport(mScreenViewport[0], mScreenViewport[1],
+                    mScreenViewport[2], mScreenViewport[3]);
+            drawUpsampled(source, interpolationValue);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.android.blurperfmormance;
+
+import android.content.Context;
+import android.os.Debug;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Device counterpart of the JMH benchmarks in the :benchmark module, for the CPU-side code
+ * that needs Android or a GL context: uniform setup through {@link GlStateCache}, the image
+ * decode and upload of {@link GpuResourcePool#acquireImage}, and the pure-Java hot paths
+ * again, on ART.
+ * <p>
+ * Each case runs warmup iterations and then measured ones, and reports nanoseconds and
+ * allocated objects per operation; the per-frame cases should allocate nothing.  Runs on
+ * the calling thread, which must not have a current EGL context.
+ */
+public final class DeviceMicrobenchmark {
+    private static final String TAG = "DeviceMicrobenchmark";
+
+    private abstract static class Case {
+        final String mName;
+        final int mIterations;
+
+        Case(String name, int iterations) {
+            mName = name;
+            mIterations = iterations;
+        }
+
+        /**
+         * Runs one operation.  The result is accumulated so the work can't be skipped.
+         */
+        abstract long run(int iteration);
+    }
+
+    private final Context mContext;
+    private long mSink;
+
+    public DeviceMicrobenchmark(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Runs every case and returns the report as JSON.
+     */
+    public String run() {
+        EglCore eglCore = new EglCore(null, EglCore.FLAG_TRY_GLES3);
+        OffscreenSurface surface = new OffscreenSurface(eglCore, 1, 1);
+        surface.makeCurrent();
+        GpuResourcePool resourcePool = new GpuResourcePool();
+        ShaderVariantCache programCache = new ShaderVariantCache(null, null, 4);
+        StringBuilder json = new StringBuilder(1024);
+        try {
+            json.append("{\"results\":[");
+            Case[] cases = createCases(resourcePool, programCache);
+            for (int i = 0; i < cases.length; i++) {
+                json.append(i == 0 ? "" : ",");
+                measure(cases[i], json);
+            }
+            json.append("]}");
+        } finally {
+            resourcePool.release();
+            programCache.release();
+            surface.release();
+            eglCore.makeNothingCurrent();
+            eglCore.release();
+        }
+        return json.toString();
+    }
+
+    private Case[] createCases(final GpuResourcePool resourcePool,
+            ShaderVariantCache programCache) {
+        final GaussianKernel kernel =
+                new GaussianKernel(15, GaussianKernel.SIGMA_HALF_RADIUS, true);
+        final FrameTimeHistogram histogram = new FrameTimeHistogram(1000000000L / 60);
+        final GlStateCache state = new GlStateCache(resourcePool);
+        final ProgramData programData = programCache.get(
+                Upsampler.getKey(Upsampler.FILTER_BILINEAR), Upsampler.SOURCE);
+        final FixedStepFrameClock clock = new FixedStepFrameClock(1000000000L / 60);
+        final BlurAnimation animation = new BlurAnimation(3000);
+
+        return new Case[] {
+            new Case("GaussianKernel.get", 100000) {
+                @Override
+                long run(int iteration) {
+                    return kernel.get((iteration & 63) * (7.0f / 63)).mSize;
+                }
+            },
+            new Case("FrameTimeHistogram.record", 100000) {
+                @Override
+                long run(int iteration) {
+                    histogram.record(12000000L + (iteration & 1023) * 10000L);
+                    return histogram.getCount();
+                }
+            },
+            new Case("BlurAnimation.getValue", 100000) {
+                @Override
+                long run(int iteration) {
+                    return Float.floatToRawIntBits(animation.getValue(clock.awaitFrame()));
+                }
+            },
+            new Case("GlStateCache pass setup, elided", 100000) {
+                @Override
+                long run(int iteration) {
+                    state.bindFramebuffer(0);
+                    state.useProgram(programData.mProgram);
+                    state.bindTexture(0, 0);
+                    state.uniform1i(programData, programData.mTextureHandle, 0);
+                    state.uniform1f(programData, programData.mWidthHandle, 720.0f);
+                    state.uniform1f(programData, programData.mHeightHandle, 1280.0f);
+                    state.uniform1f(programData, programData.mRadiusHandle, 7.0f);
+                    return state.getLastFrameElidedCalls();
+                }
+            },
+            new Case("GlStateCache.uniform1f, issued", 100000) {
+                @Override
+                long run(int iteration) {
+                    state.useProgram(programData.mProgram);
+                    state.uniform1f(programData, programData.mRadiusHandle, iteration & 1);
+                    return iteration;
+                }
+            },
+            new Case("GpuResourcePool.acquireImage", 10) {
+                @Override
+                long run(int iteration) {
+                    // Nothing else holds the image, so every iteration decodes and uploads
+                    // it and the release deletes the texture again.
+                    GpuResourcePool.Texture image =
+                            resourcePool.acquireImage(mContext, R.drawable.image, false);
+                    long pixels = (long) image.getWidth() * image.getHeight();
+                    resourcePool.release(image);
+                    return pixels;
+                }
+            },
+        };
+    }
+
+    private void measure(Case benchmark, StringBuilder json) {
+        int warmup = Math.max(1, benchmark.mIterations / 10);
+        for (int i = 0; i < warmup; i++) {
+            mSink += benchmark.run(i);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (int i = 0; i < benchmark.mIterations; i++) {
+            mSink += benchmark.run(i);
+        }
+        long nanos = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        int allocations = Debug.getThreadAllocCount();
+
+        float nanosPerOp = nanos / (float) benchmark.mIterations;
+        float allocationsPerOp = allocations / (float) benchmark.mIterations;
+        json.append("{\"name\":\"").append(benchmark.mName).append('"')
+                .append(String.format(Locale.US, ",\"nsPerOp\":%.1f,\"allocsPerOp\":%.3f",
+                        nanosPerOp, allocationsPerOp))
+                .append(",\"iterations\":").append(benchmark.mIterations).append('}');
+        Log.d(TAG, benchmark.mName + ": " + String.format(Locale.US,
+                "%.1f ns/op, %.3f allocations/op", nanosPerOp, allocationsPerOp));
+    }
+
+    /**
+     * Runs the cases and writes the report to file.
+     */
+    public void runToFile(File file) throws IOException {
+        BenchmarkRunner.writeReport(run(), file);
+        Log.d(TAG, "Sink " + (mSink & 1));
+    }
+}
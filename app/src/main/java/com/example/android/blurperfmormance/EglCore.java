@@ -310,10 +310,10 @@ public final class EglCore {
     /**
      * Sends the presentation time stamp to EGL.  Time is expressed in nanoseconds.
      */
-/*    public void setPresentationTime(EGLSurface eglSurface, long nsecs) {
+    public void setPresentationTime(EGLSurface eglSurface, long nsecs) {
         EGLExt.eglPresentationTimeANDROID(mEGLDisplay, eglSurface, nsecs);
     }
-*/
+
     /**
      * Returns true if our context and the specified surface are current.
      */
@@ -338,6 +338,13 @@ public final class EglCore {
         return EGL14.eglQueryString(mEGLDisplay, what);
     }
 
+    /**
+     * Returns the EGLContext, e.g. to create another EglCore in the same share group.
+     */
+    public EGLContext getContext() {
+        return mEGLContext;
+    }
+
     /**
      * Returns the GLES version this context is configured for (currently 2 or 3).
      */
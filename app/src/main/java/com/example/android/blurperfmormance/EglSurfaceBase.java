@@ -43,6 +43,7 @@ public class EglSurfaceBase {
     private EGLSurface mEGLSurface = EGL14.EGL_NO_SURFACE;
     private int mWidth = -1;
     private int mHeight = -1;
+    private ByteBuffer mPixelBuffer;            // reused by saveFrame()
 
     protected EglSurfaceBase(EglCore eglCore) {
         mEglCore = eglCore;
@@ -145,14 +146,16 @@ public class EglSurfaceBase {
      *
      * @param nsecs Timestamp, in nanoseconds.
      */
-/*    public void setPresentationTime(long nsecs) {
+    public void setPresentationTime(long nsecs) {
         mEglCore.setPresentationTime(mEGLSurface, nsecs);
     }
-*/
+
     /**
      * Saves the EGL surface to a file.
      * <p>
-     * Expects that this object's EGL surface is current.
+     * Expects that this object's EGL surface is current.  Waits for the frame to be
+     * rendered and compresses it on the calling thread; use {@link FrameCapture} to save
+     * frames while rendering.
      */
     public void saveFrame(File file) throws IOException {
         if (!mEglCore.isCurrent(mEGLSurface)) {
@@ -164,8 +167,7 @@ public class EglSurfaceBase {
         // constructor that takes an int[] wants little-endian ARGB (blue/red swapped), the
         // Bitmap "copy pixels" method wants the same format GL provides.
         //
-        // Ideally we'd have some way to re-use the ByteBuffer, especially if we're calling
-        // here often.
+        // The ByteBuffer is kept for the next call of the same size.
         //
         // Making this even more interesting is the upside-down nature of GL, which means
         // our output will look upside down relative to what appears on screen if the
@@ -175,8 +177,12 @@ public class EglSurfaceBase {
 
         int width = getWidth();
         int height = getHeight();
-        ByteBuffer buf = ByteBuffer.allocateDirect(width * height * 4);
-        buf.order(ByteOrder.LITTLE_ENDIAN);
+        if (mPixelBuffer == null || mPixelBuffer.capacity() != width * height * 4) {
+            mPixelBuffer = ByteBuffer.allocateDirect(width * height * 4);
+            mPixelBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        ByteBuffer buf = mPixelBuffer;
+        buf.clear();
         GLES20.glReadPixels(0, 0, width, height,
                 GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, buf);
 //        GlUtil.checkGlError("glReadPixels");
@@ -0,0 +1,275 @@
+package com.example.android.blurperfmormance;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES31;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Saves the frames being rendered as PNG files without stalling the render thread, unlike
+ * {@link EglSurfaceBase#saveFrame(File)}.
+ * <p>
+ * {@link #capture()} reads the frame into one of a ring of {@link #FRAME_LATENCY} pixel
+ * buffer objects, which only queues a copy on the GPU, and puts a fence after it.  A
+ * readback is mapped no earlier than FRAME_LATENCY captures later, and only once its fence
+ * has signaled, so mapping never waits; it is then copied, upright, into one of a pool of
+ * buffers and compressed on a background executor.  If the GPU or the encoders fall behind
+ * so that no slot or buffer is free, the frame is dropped instead of waited for.
+ * <p>
+ * Create, capture and release on the render thread, with the surface to capture current.
+ * The statistics may be read from any thread.
+ */
+public final class FrameCapture {
+    private static final String TAG = "FrameCapture";
+
+    /** Captures a readback stays in flight before it is mapped. */
+    public static final int FRAME_LATENCY = 3;
+
+    private static final class Readback {
+        int mBuffer;
+        long mFence;
+        int mIndex;
+        long mCaptureNumber;
+    }
+
+    /**
+     * Pooled pixels of a frame on their way to a file, and the bitmap they are encoded from.
+     */
+    private static final class Frame {
+        final ByteBuffer mPixels;
+        Bitmap mBitmap;             // encoder thread only
+        int mIndex;
+
+        Frame(int size) {
+            mPixels = ByteBuffer.allocateDirect(size);
+        }
+    }
+
+    private final File mDirectory;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mRowBytes;
+    private final Readback[] mReadbacks = new Readback[FRAME_LATENCY];
+    private final BlockingQueue<Frame> mFreeFrames;
+    private final ExecutorService mEncoder;
+
+    private long mCaptureNumber;
+    private int mOldest;                // next readback to map
+    private int mPending;               // readbacks in flight
+    private int mNextIndex;             // of the file name
+
+    private int mDroppedFrames;
+    private final AtomicInteger mEncodedFrames = new AtomicInteger();
+    private final AtomicInteger mFailedFrames = new AtomicInteger();
+    private long mFirstCaptureNanos = -1;
+    private volatile long mLastEncodedNanos;
+    private volatile boolean mReleased;
+
+    /**
+     * @param directory Where the frames are written, as frame_00000.png and so on.
+     * @param encoderThreads Frames compressed at a time, each with a pooled buffer.
+     */
+    public FrameCapture(File directory, int width, int height, int encoderThreads) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new RuntimeException("Unable to create " + directory);
+        }
+        mDirectory = directory;
+        mWidth = width;
+        mHeight = height;
+        mRowBytes = width * 4;
+
+        int[] buffers = new int[FRAME_LATENCY];
+        GLES31.glGenBuffers(buffers.length, buffers, 0);
+        for (int i = 0; i < FRAME_LATENCY; i++) {
+            Readback readback = new Readback();
+            readback.mBuffer = buffers[i];
+            GLES31.glBindBuffer(GLES31.GL_PIXEL_PACK_BUFFER, readback.mBuffer);
+            GLES31.glBufferData(GLES31.GL_PIXEL_PACK_BUFFER, mRowBytes * height, null,
+                    GLES31.GL_STREAM_READ);
+            mReadbacks[i] = readback;
+        }
+        GLES31.glBindBuffer(GLES31.GL_PIXEL_PACK_BUFFER, 0);
+
+        // One frame waiting per encoder besides the ones being encoded.
+        mFreeFrames = new ArrayBlockingQueue<Frame>(2 * encoderThreads);
+        for (int i = 0; i < 2 * encoderThreads; i++) {
+            mFreeFrames.add(new Frame(mRowBytes * height));
+        }
+        mEncoder = Executors.newFixedThreadPool(encoderThreads);
+    }
+
+    /**
+     * Queues the readback of the frame drawn so far and hands finished readbacks to the
+     * encoders.  Call once per frame, before swapBuffers().
+     *
+     * @return false if the frame was dropped.
+     */
+    public boolean capture() {
+        if (mFirstCaptureNanos < 0) {
+            mFirstCaptureNanos = System.nanoTime();
+        }
+        mCaptureNumber++;
+        while (mPending > 0 && mapOldest(false)) {
+            // keep going
+        }
+        if (mPending == FRAME_LATENCY) {
+            mDroppedFrames++;
+            return false;
+        }
+
+        Readback readback = mReadbacks[(mOldest + mPending) % FRAME_LATENCY];
+        GLES31.glBindBuffer(GLES31.GL_PIXEL_PACK_BUFFER, readback.mBuffer);
+        GLES31.glReadPixels(0, 0, mWidth, mHeight, GLES31.GL_RGBA, GLES31.GL_UNSIGNED_BYTE, 0);
+        GLES31.glBindBuffer(GLES31.GL_PIXEL_PACK_BUFFER, 0);
+        readback.mFence = GLES31.glFenceSync(GLES31.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        readback.mIndex = mNextIndex++;
+        readback.mCaptureNumber = mCaptureNumber;
+        mPending++;
+        return true;
+    }
+
+    /**
+     * Maps the oldest readback and passes it to an encoder, if it is old enough, its fence
+     * has signaled and a buffer is free, or waits for all three if block is set.  Returns
+     * whether it was passed on.
+     */
+    private boolean mapOldest(boolean block) {
+        Readback readback = mReadbacks[mOldest];
+        if (!block && mCaptureNumber - readback.mCaptureNumber < FRAME_LATENCY) {
+            return false;
+        }
+        int status = GLES31.glClientWaitSync(readback.mFence,
+                block ? GLES31.GL_SYNC_FLUSH_COMMANDS_BIT : 0, block ? Long.MAX_VALUE : 0);
+        if (status == GLES31.GL_TIMEOUT_EXPIRED) {
+            return false;
+        }
+        Frame frame = mFreeFrames.poll();
+        if (frame == null) {
+            if (!block) {
+                return false;
+            }
+            try {
+                frame = mFreeFrames.take();
+            } catch (InterruptedException ie) {
+                throw new RuntimeException(ie);     // not expected
+            }
+        }
+
+        GLES31.glDeleteSync(readback.mFence);
+        readback.mFence = 0;
+        GLES31.glBindBuffer(GLES31.GL_PIXEL_PACK_BUFFER, readback.mBuffer);
+        ByteBuffer mapped = (ByteBuffer) GLES31.glMapBufferRange(GLES31.GL_PIXEL_PACK_BUFFER,
+                0, mRowBytes * mHeight, GLES31.GL_MAP_READ_BIT);
+        // GL rows go bottom to top.
+        ByteBuffer pixels = frame.mPixels;
+        pixels.clear();
+        for (int y = mHeight - 1; y >= 0; y--) {
+            mapped.limit((y + 1) * mRowBytes);
+            mapped.position(y * mRowBytes);
+            pixels.put(mapped);
+        }
+        pixels.flip();
+        GLES31.glUnmapBuffer(GLES31.GL_PIXEL_PACK_BUFFER);
+        GLES31.glBindBuffer(GLES31.GL_PIXEL_PACK_BUFFER, 0);
+
+        frame.mIndex = readback.mIndex;
+        encode(frame);
+        mOldest = (mOldest + 1) % FRAME_LATENCY;
+        mPending--;
+        return true;
+    }
+
+    private void encode(final Frame frame) {
+        mEncoder.execute(new Runnable() {
+            @Override
+            public void run() {
+                File file = new File(mDirectory,
+                        String.format(Locale.US, "frame_%05d.png", frame.mIndex));
+                try {
+                    if (frame.mBitmap == null) {
+                        frame.mBitmap = Bitmap.createBitmap(mWidth, mHeight,
+                                Bitmap.Config.ARGB_8888);
+                    }
+                    frame.mBitmap.copyPixelsFromBuffer(frame.mPixels);
+                    OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+                    try {
+                        frame.mBitmap.compress(Bitmap.CompressFormat.PNG, 90, out);
+                    } finally {
+                        out.close();
+                    }
+                    mEncodedFrames.incrementAndGet();
+                    mLastEncodedNanos = System.nanoTime();
+                } catch (IOException ioe) {
+                    mFailedFrames.incrementAndGet();
+                    Log.w(TAG, "Unable to write " + file, ioe);
+                } finally {
+                    if (mReleased) {
+                        if (frame.mBitmap != null) {
+                            frame.mBitmap.recycle();
+                        }
+                    } else {
+                        mFreeFrames.add(frame);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for every readback in flight and hands it to the encoders, e.g. before the
+     * last frame.  Blocks the render thread.
+     */
+    public void flush() {
+        while (mPending > 0) {
+            mapOldest(true);
+        }
+    }
+
+    /**
+     * Frames written per second, from the first capture to the last frame written.
+     */
+    public float getEncodedFramesPerSecond() {
+        long nanos = mLastEncodedNanos - mFirstCaptureNanos;
+        int encoded = mEncodedFrames.get();
+        return encoded == 0 || nanos <= 0 ? 0.0f : encoded * 1e9f / nanos;
+    }
+
+    public void logStatistics() {
+        Log.d(TAG, "Captured " + mCaptureNumber + " frames: written " + mEncodedFrames.get()
+                + ", dropped " + mDroppedFrames + ", failed " + mFailedFrames.get()
+                + String.format(Locale.US, ", %.1f frames/s", getEncodedFramesPerSecond()));
+    }
+
+    /**
+     * Writes the readbacks in flight, deletes the buffers and lets the encoders finish in
+     * the background.
+     */
+    public void release() {
+        flush();
+        int[] buffers = new int[FRAME_LATENCY];
+        for (int i = 0; i < FRAME_LATENCY; i++) {
+            buffers[i] = mReadbacks[i].mBuffer;
+        }
+        GLES31.glDeleteBuffers(buffers.length, buffers, 0);
+        mReleased = true;
+        mEncoder.shutdown();
+        Frame frame;
+        while ((frame = mFreeFrames.poll()) != null) {
+            if (frame.mBitmap != null) {
+                frame.mBitmap.recycle();
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.android.blurperfmormance;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import android.opengl.GLES31;
+
+/**
+ * The geometry every pass is drawn with: one triangle that covers the viewport, kept in a
+ * static vertex buffer behind a vertex array object.
+ * <p>
+ * A single triangle has no diagonal edge, so no 2x2 pixel quad along the diagonal is shaded
+ * twice, and the vertex data is uploaded once instead of on every pass.  Programs are
+ * linked with aPosition and aTexCoord at {@link #POSITION_LOCATION} and
+ * {@link #TEX_COORD_LOCATION}, so the one vertex array serves all of them.
+ * <p>
+ * Vertex arrays are not shared between contexts; create, bind and release on the render
+ * thread.  Everything drawn in a frame expects the array to be bound.
+ */
+public final class FullscreenTriangle {
+    public static final int POSITION_LOCATION = 0;
+    public static final int TEX_COORD_LOCATION = 1;
+
+    public static final int VERTEX_COUNT = 3;
+
+    // x, y, s, t.  The corners outside the viewport are clipped; inside it the texture
+    // coordinates run from 0 to 1 like on the old two-triangle quad.
+    private static final float[] VERTICES = {
+            -1f, -1f, 0f, 0f,
+             3f, -1f, 2f, 0f,
+            -1f,  3f, 0f, 2f,
+    };
+
+    private static final int STRIDE = 4 * 4;
+
+    private int mVertexArray;
+    private int mVertexBuffer;
+
+    /**
+     * Binds the vertex array, creating it first if necessary.
+     */
+    public void bind() {
+        if (mVertexArray == 0) {
+            create();
+        }
+        GLES31.glBindVertexArray(mVertexArray);
+    }
+
+    private void create() {
+        FloatBuffer vertices = ByteBuffer.allocateDirect(VERTICES.length * 4)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        vertices.put(VERTICES);
+        vertices.position(0);
+
+        int[] names = new int[1];
+        GLES31.glGenVertexArrays(1, names, 0);
+        mVertexArray = names[0];
+        GLES31.glGenBuffers(1, names, 0);
+        mVertexBuffer = names[0];
+
+        GLES31.glBindVertexArray(mVertexArray);
+        GLES31.glBindBuffer(GLES31.GL_ARRAY_BUFFER, mVertexBuffer);
+        GLES31.glBufferData(GLES31.GL_ARRAY_BUFFER, VERTICES.length * 4, vertices,
+                GLES31.GL_STATIC_DRAW);
+        GLES31.glEnableVertexAttribArray(POSITION_LOCATION);
+        GLES31.glVertexAttribPointer(POSITION_LOCATION, 2, GLES31.GL_FLOAT, false, STRIDE, 0);
+        GLES31.glEnableVertexAttribArray(TEX_COORD_LOCATION);
+        GLES31.glVertexAttribPointer(TEX_COORD_LOCATION, 2, GLES31.GL_FLOAT, false, STRIDE,
+                2 * 4);
+        GLES31.glBindVertexArray(0);
+        GLES31.glBindBuffer(GLES31.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Draws the triangle with the current program.  The array must be bound.
+     */
+    public static void draw() {
+        GLES31.glDrawArrays(GLES31.GL_TRIANGLES, 0, VERTEX_COUNT);
+    }
+
+    /**
+     * Deletes the vertex array and buffer.
+     */
+    public void release() {
+        if (mVertexArray != 0) {
+            GLES31.glDeleteVertexArrays(1, new int[] { mVertexArray }, 0);
+            GLES31.glDeleteBuffers(1, new int[] { mVertexBuffer }, 0);
+            mVertexArray = 0;
+            mVertexBuffer = 0;
+        }
+    }
+}
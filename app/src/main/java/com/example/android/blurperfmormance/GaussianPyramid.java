@@ -0,0 +1,175 @@
+package com.example.android.blurperfmormance;
+
+import android.opengl.GLES31;
+
+/**
+ * Mip chain of the source image in which every level is a Gaussian reduction of the one
+ * above it, replacing the box-filtered levels of glGenerateMipmap.
+ * <p>
+ * Each level is rendered from the previous one with the separable binomial kernel
+ * [1 5 10 10 5 1] / 32 (sigma of about 1.1 source texels), evaluated as 3 x 3 bilinear
+ * fetches in a single pass.  Sampled with a fractional textureLod(), trilinear filtering
+ * blends two neighbouring levels, which serves any radius at constant cost.
+ * <p>
+ * The texture may be acquired on a {@link SharedContextWorker}; the level framebuffers are
+ * per context, so BlurSquare builds the pyramid on the render thread before its first draw.
+ */
+final class GaussianPyramid {
+
+    private static final String VERTEX_SHADER_CODE =
+            "#version 300 es\n" +
+            "precision mediump float;\n" +
+            "in vec4 aPosition;\n" +
+            "in vec2 aTexCoord;\n" +
+            "out vec2 vTexCoord;\n" +
+
+            "void main()\n" +
+            "{\n" +
+            "    vTexCoord = aTexCoord;\n" +
+            "    gl_Position = aPosition;\n" +
+            "}";
+
+    // uWidth / uHeight are the size of the level read; only that level is in the sampling
+    // range, so lod 0 addresses it.  Pairs of binomial taps (1, 5), (10, 10) and (5, 1)
+    // each become one bilinear fetch, 5 / 3 texels off center for the outer pairs.
+    private static final String REDUCE_FRAGMENT_SHADER_CODE =
+            "#version 300 es\n" +
+            "precision mediump float;\n" +
+            "uniform sampler2D uTexture;\n" +
+            "uniform float uWidth;\n" +
+            "uniform float uHeight;\n" +
+            "in vec2 vTexCoord;\n" +
+            "out vec4 fragColor;\n" +
+
+            "void main()\n" +
+            "{\n" +
+            "    vec2 offset = (5.0 / 3.0) / vec2(uWidth, uHeight);\n" +
+            "    vec3 weight = vec3(6.0, 20.0, 6.0) / 32.0;\n" +
+            "    vec4 color = vec4(0.0);\n" +
+            "    for (int y = -1; y <= 1; y++) {\n" +
+            "        for (int x = -1; x <= 1; x++) {\n" +
+            "            color += textureLod(uTexture, vTexCoord + vec2(x, y) * offset, 0.0)\n" +
+            "                    * weight[x + 1] * weight[y + 1];\n" +
+            "        }\n" +
+            "    }\n" +
+            "    fragColor = color;\n" +
+            "}";
+
+    static final ShaderVariantCache.Key KEY =
+            new ShaderVariantCache.Key("GaussianPyramid", ShaderVariantCache.DIRECTION_HORIZONTAL, 0);
+
+    static final ShaderVariantCache.Source SOURCE = new ShaderVariantCache.Source() {
+        @Override
+        public String getVertexShaderCode(ShaderVariantCache.Key key) {
+            return VERTEX_SHADER_CODE;
+        }
+
+        @Override
+        public String getFragmentShaderCode(ShaderVariantCache.Key key) {
+            return REDUCE_FRAGMENT_SHADER_CODE;
+        }
+    };
+
+    private final GpuResourcePool mResourcePool;
+    private GpuResourcePool.Texture mTexture;
+    private final int[] mFramebuffers;
+    private boolean mBuilt;
+
+    /**
+     * Acquires a pyramid texture of the image's size.
+     */
+    GaussianPyramid(GpuResourcePool resourcePool, GpuResourcePool.Texture image) {
+        mResourcePool = resourcePool;
+        mTexture = resourcePool.acquirePyramid(image.getWidth(), image.getHeight(), 0);
+        mFramebuffers = new int[GpuResourcePool.getLevelCount(image.getWidth(),
+                image.getHeight())];
+    }
+
+    GpuResourcePool.Texture getTexture() {
+        return mTexture;
+    }
+
+    int getLevelCount() {
+        return mFramebuffers.length;
+    }
+
+    boolean isBuilt() {
+        return mBuilt;
+    }
+
+    int getLevelWidth(int level) {
+        return Math.max(1, mTexture.getWidth() >> level);
+    }
+
+    int getLevelHeight(int level) {
+        return Math.max(1, mTexture.getHeight() >> level);
+    }
+
+    /**
+     * Copies the image into level 0.
+     */
+    void copyBaseLevel(int imageFramebuffer, GlStateCache state) {
+        int width = mTexture.getWidth();
+        int height = mTexture.getHeight();
+        int baseFramebuffer = getFramebuffer(0, state);
+        GLES31.glBindFramebuffer(GLES31.GL_READ_FRAMEBUFFER, imageFramebuffer);
+        GLES31.glBindFramebuffer(GLES31.GL_DRAW_FRAMEBUFFER, baseFramebuffer);
+        GLES31.glBlitFramebuffer(0, 0, width, height, 0, 0, width, height,
+                GLES31.GL_COLOR_BUFFER_BIT, GLES31.GL_NEAREST);
+        state.invalidateFramebuffer();
+    }
+
+    /**
+     * Limits sampling to level - 1 and sets the viewport to the level's size.  Returns the
+     * framebuffer of the level, for a pass that reads the texture at lod 0.
+     */
+    int beginLevel(int level, GlStateCache state) {
+        state.bindTexture(0, mTexture.getName());
+        state.activeTexture(0);
+        GLES31.glTexParameteri(GLES31.GL_TEXTURE_2D, GLES31.GL_TEXTURE_BASE_LEVEL, level - 1);
+        GLES31.glTexParameteri(GLES31.GL_TEXTURE_2D, GLES31.GL_TEXTURE_MAX_LEVEL, level - 1);
+        state.viewport(0, 0, getLevelWidth(level), getLevelHeight(level));
+        return getFramebuffer(level, state);
+    }
+
+    /**
+     * Opens the whole chain to sampling again.
+     */
+    void finish(GlStateCache state) {
+        state.bindTexture(0, mTexture.getName());
+        state.activeTexture(0);
+        GLES31.glTexParameteri(GLES31.GL_TEXTURE_2D, GLES31.GL_TEXTURE_BASE_LEVEL, 0);
+        GLES31.glTexParameteri(GLES31.GL_TEXTURE_2D, GLES31.GL_TEXTURE_MAX_LEVEL,
+                getLevelCount() - 1);
+        mBuilt = true;
+    }
+
+    private int getFramebuffer(int level, GlStateCache state) {
+        if (mFramebuffers[level] == 0) {
+            int[] fbo = new int[1];
+            GLES31.glGenFramebuffers(1, fbo, 0);
+            state.bindFramebuffer(fbo[0]);
+            GLES31.glFramebufferTexture2D(GLES31.GL_FRAMEBUFFER, GLES31.GL_COLOR_ATTACHMENT0,
+                    GLES31.GL_TEXTURE_2D, mTexture.getName(), level);
+            mFramebuffers[level] = fbo[0];
+        }
+        return mFramebuffers[level];
+    }
+
+    /**
+     * Deletes the level framebuffers and returns the texture to the pool.  Render thread only.
+     */
+    void release() {
+        for (int i = 0; i < mFramebuffers.length; i++) {
+            if (mFramebuffers[i] != 0) {
+                GLES31.glDeleteFramebuffers(1, mFramebuffers, i);
+                mFramebuffers[i] = 0;
+            }
+        }
+        if (mTexture != null) {
+            mResourcePool.release(mTexture);
+            mTexture = null;
+        }
+        mBuilt = false;
+    }
+}
@@ -0,0 +1,288 @@
+package com.example.android.blurperfmormance;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import android.opengl.GLES31;
+import android.util.Log;
+
+/**
+ * Shadow of the GL state the blur passes change, which drops calls that would set a value
+ * that is already current and counts issued against elided calls.
+ * <p>
+ * Tracks the current program, the GL_FRAMEBUFFER binding, the active texture unit, the
+ * GL_TEXTURE_2D binding of each unit, the viewport, and the uniforms set through it.
+ * Uniform values are program state, so they are kept per {@link ProgramData} and survive
+ * {@link #invalidate()}.  Bindings may be changed behind the cache's back by code that
+ * doesn't route through it, so they're forgotten at the start of every frame, and whenever
+ * the {@link GpuResourcePool} creates or deletes an object (which binds it, or unbinds a
+ * deleted one).  Other code that binds mid-frame without the cache must call invalidate().
+ * Render thread only.
+ */
+public final class GlStateCache {
+    private static final String TAG = "GlStateCache";
+
+    private static final int UNKNOWN = -1;
+    private static final int MAX_TEXTURE_UNITS = 8;
+
+    // Locations beyond this are always uploaded rather than tracked.
+    private static final int MAX_TRACKED_LOCATION = 256;
+
+    /**
+     * Last values uploaded to a program's uniforms, indexed by location.
+     */
+    static final class UniformValues {
+        private int[] mBits = new int[0];
+        private boolean[] mKnown = new boolean[0];
+        private float[][] mArrays = new float[0][];
+
+        private boolean ensure(int location) {
+            if (location < 0 || location > MAX_TRACKED_LOCATION) {
+                return false;
+            }
+            if (location >= mKnown.length) {
+                int length = location + 1;
+                mBits = Arrays.copyOf(mBits, length);
+                mKnown = Arrays.copyOf(mKnown, length);
+                mArrays = Arrays.copyOf(mArrays, length);
+            }
+            return true;
+        }
+    }
+
+    private final GpuResourcePool mResourcePool;
+    private int mPoolGeneration;
+
+    private int mProgram = UNKNOWN;
+    private int mFramebuffer = UNKNOWN;
+    private int mActiveTextureUnit = UNKNOWN;
+    private final int[] mTextures = new int[MAX_TEXTURE_UNITS];
+    private final int[] mViewport = new int[4];
+    private boolean mViewportKnown;
+
+    private int mIssued;
+    private int mElided;
+    private int mLastFrameIssued;
+    private int mLastFrameElided;
+    private long mTotalIssued;
+    private long mTotalElided;
+    private int mFrames;
+
+    public GlStateCache(GpuResourcePool resourcePool) {
+        mResourcePool = resourcePool;
+        mPoolGeneration = resourcePool.getGeneration();
+        invalidate();
+    }
+
+    /**
+     * Forgets every binding, so the next call of each kind is issued.
+     */
+    public void invalidate() {
+        mProgram = UNKNOWN;
+        mFramebuffer = UNKNOWN;
+        mActiveTextureUnit = UNKNOWN;
+        Arrays.fill(mTextures, UNKNOWN);
+        mViewportKnown = false;
+    }
+
+    /**
+     * Forgets the GL_FRAMEBUFFER binding, after binding GL_READ_FRAMEBUFFER or
+     * GL_DRAW_FRAMEBUFFER directly.
+     */
+    public void invalidateFramebuffer() {
+        mFramebuffer = UNKNOWN;
+    }
+
+    private void checkPoolGeneration() {
+        int generation = mResourcePool.getGeneration();
+        if (generation != mPoolGeneration) {
+            mPoolGeneration = generation;
+            invalidate();
+        }
+    }
+
+    /**
+     * Starts a frame: forgets the bindings and resets the per-frame counters.
+     */
+    public void beginFrame() {
+        invalidate();
+        mIssued = 0;
+        mElided = 0;
+    }
+
+    /**
+     * Publishes the frame's counters to getLastFrame*() and the totals.
+     */
+    public void endFrame() {
+        mLastFrameIssued = mIssued;
+        mLastFrameElided = mElided;
+        mTotalIssued += mIssued;
+        mTotalElided += mElided;
+        mFrames++;
+    }
+
+    private boolean elide(boolean redundant) {
+        if (redundant) {
+            mElided++;
+        } else {
+            mIssued++;
+        }
+        return redundant;
+    }
+
+    public void useProgram(int program) {
+        if (!elide(program == mProgram)) {
+            GLES31.glUseProgram(program);
+            mProgram = program;
+        }
+    }
+
+    /**
+     * Binds the framebuffer to GL_FRAMEBUFFER, i.e. for both drawing and reading.
+     */
+    public void bindFramebuffer(int framebuffer) {
+        checkPoolGeneration();
+        if (!elide(framebuffer == mFramebuffer)) {
+            GLES31.glBindFramebuffer(GLES31.GL_FRAMEBUFFER, framebuffer);
+            mFramebuffer = framebuffer;
+        }
+    }
+
+    /**
+     * Binds the texture to GL_TEXTURE_2D of the unit, making the unit active if needed.
+     */
+    public void bindTexture(int unit, int texture) {
+        checkPoolGeneration();
+        if (elide(texture == mTextures[unit])) {
+            return;
+        }
+        activeTexture(unit);
+        GLES31.glBindTexture(GLES31.GL_TEXTURE_2D, texture);
+        mTextures[unit] = texture;
+    }
+
+    /**
+     * Makes the unit active, e.g. before glTexParameteri() on a texture bound to it.
+     */
+    public void activeTexture(int unit) {
+        if (!elide(unit == mActiveTextureUnit)) {
+            GLES31.glActiveTexture(GLES31.GL_TEXTURE0 + unit);
+            mActiveTextureUnit = unit;
+        }
+    }
+
+    public void viewport(int x, int y, int width, int height) {
+        if (elide(mViewportKnown && x == mViewport[0] && y == mViewport[1]
+                && width == mViewport[2] && height == mViewport[3])) {
+            return;
+        }
+        GLES31.glViewport(x, y, width, height);
+        mViewport[0] = x;
+        mViewport[1] = y;
+        mViewport[2] = width;
+        mViewport[3] = height;
+        mViewportKnown = true;
+    }
+
+    /**
+     * Copies the viewport into viewport[0..3], querying GL only if it isn't known.
+     */
+    public void getViewport(int[] viewport) {
+        if (!mViewportKnown) {
+            GLES31.glGetIntegerv(GLES31.GL_VIEWPORT, mViewport, 0);
+            mViewportKnown = true;
+        }
+        System.arraycopy(mViewport, 0, viewport, 0, 4);
+    }
+
+    /**
+     * Sets a sampler or int uniform of programData, which must be current.
+     */
+    public void uniform1i(ProgramData programData, int location, int value) {
+        UniformValues values = programData.mUniformValues;
+        boolean tracked = values.ensure(location);
+        if (elide(location < 0
+                || (tracked && values.mKnown[location] && values.mBits[location] == value))) {
+            return;
+        }
+        GLES31.glUniform1i(location, value);
+        if (tracked) {
+            values.mBits[location] = value;
+            values.mKnown[location] = true;
+        }
+    }
+
+    /**
+     * Sets a float uniform of programData, which must be current.
+     */
+    public void uniform1f(ProgramData programData, int location, float value) {
+        UniformValues values = programData.mUniformValues;
+        boolean tracked = values.ensure(location);
+        int bits = Float.floatToRawIntBits(value);
+        if (elide(location < 0
+                || (tracked && values.mKnown[location] && values.mBits[location] == bits))) {
+            return;
+        }
+        GLES31.glUniform1f(location, value);
+        if (tracked) {
+            values.mBits[location] = bits;
+            values.mKnown[location] = true;
+        }
+    }
+
+    /**
+     * Sets count elements of a float array uniform of programData, which must be current.
+     */
+    public void uniform1fv(ProgramData programData, int location, int count, float[] value) {
+        UniformValues values = programData.mUniformValues;
+        boolean tracked = values.ensure(location);
+        float[] previous = tracked ? values.mArrays[location] : null;
+        if (elide(location < 0 || (previous != null && previous.length == count
+                && equals(previous, value, count)))) {
+            return;
+        }
+        GLES31.glUniform1fv(location, count, value, 0);
+        if (tracked) {
+            values.mArrays[location] = Arrays.copyOf(value, count);
+        }
+    }
+
+    private static boolean equals(float[] a, float[] b, int count) {
+        for (int i = 0; i < count; i++) {
+            if (Float.floatToRawIntBits(a[i]) != Float.floatToRawIntBits(b[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getLastFrameIssuedCalls() {
+        return mLastFrameIssued;
+    }
+
+    public int getLastFrameElidedCalls() {
+        return mLastFrameElided;
+    }
+
+    /**
+     * Writes the average issued and elided calls per frame since the last reset to the log.
+     */
+    public void logStatistics(String label) {
+        if (mFrames == 0) {
+            return;
+        }
+        Log.d(TAG, label + ": GL state calls per frame: issued="
+                + String.format(Locale.US, "%.1f", mTotalIssued / (float) mFrames)
+                + " elided=" + String.format(Locale.US, "%.1f", mTotalElided / (float) mFrames)
+                + " over " + mFrames + " frames");
+    }
+
+    /**
+     * Clears the totals behind logStatistics(), e.g. when switching algorithms.
+     */
+    public void resetStatistics() {
+        mTotalIssued = 0;
+        mTotalElided = 0;
+        mFrames = 0;
+    }
+}
@@ -0,0 +1,367 @@
+package com.example.android.blurperfmormance;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.opengl.GLES31;
+import android.opengl.GLUtils;
+import android.util.Log;
+
+import java.util.HashMap;
+
+/**
+ * Reference-counted pool of the textures and framebuffers the blur algorithms render with.
+ * <p>
+ * Algorithms that ask for the same source image or the same render target get the same
+ * texture, so switching algorithms doesn't upload the image again and only one set of
+ * ping-pong targets is resident.  Sharing render targets is safe because only one algorithm
+ * draws at a time.  A texture is deleted when its last user releases it.
+ * <p>
+ * Textures may be acquired on a {@link SharedContextWorker}.  Framebuffers are not shared
+ * between contexts, so getFramebuffer() and release() must be called on the render thread.
+ */
+public final class GpuResourcePool {
+    private static final String TAG = "GpuResourcePool";
+
+    private static final class Key {
+        final int mResourceId;      // 0 for render targets
+        final int mWidth;
+        final int mHeight;
+        final int mFormat;
+        final boolean mMipmaps;
+        final int mSlot;
+
+        Key(int resourceId, int width, int height, int format, boolean mipmaps, int slot) {
+            mResourceId = resourceId;
+            mWidth = width;
+            mHeight = height;
+            mFormat = format;
+            mMipmaps = mipmaps;
+            mSlot = slot;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mResourceId == other.mResourceId && mWidth == other.mWidth
+                    && mHeight == other.mHeight && mFormat == other.mFormat
+                    && mMipmaps == other.mMipmaps && mSlot == other.mSlot;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = mResourceId;
+            hash = hash * 31 + mWidth;
+            hash = hash * 31 + mHeight;
+            hash = hash * 31 + mFormat;
+            hash = hash * 31 + (mMipmaps ? 1 : 0);
+            return hash * 31 + mSlot;
+        }
+    }
+
+    /**
+     * A pooled texture.  Hand it back with {@link #release(Texture)}, never delete it.
+     */
+    public static final class Texture {
+        private final Key mKey;
+        private final int mTexture;
+        private final int mWidth;
+        private final int mHeight;
+        private final long mBytes;
+        private int mFramebuffer;
+        private int mRefCount;
+
+        Texture(Key key, int texture, int width, int height) {
+            mKey = key;
+            mTexture = texture;
+            mWidth = width;
+            mHeight = height;
+            mBytes = estimateBytes(width, height, key.mFormat, key.mMipmaps);
+        }
+
+        public int getName() {
+            return mTexture;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+    }
+
+    private final HashMap<Key, Texture> mTextures = new HashMap<Key, Texture>();
+    private long mBytesResident;
+    private long mPeakBytesResident;
+    private int mCreated;
+    private int mShared;
+
+    // Bumped whenever a GL object is created or deleted, see getGeneration().
+    private volatile int mGeneration;
+
+    /**
+     * Returns the decoded image resource as a texture, with a full mip chain if mipmaps is
+     * set.  Images without mipmaps are sampled with GL_LINEAR.
+     */
+    public synchronized Texture acquireImage(Context context, int resourceId, boolean mipmaps) {
+        Key key = new Key(resourceId, 0, 0, GLES31.GL_RGBA, mipmaps, 0);
+        Texture texture = reuse(key);
+        if (texture != null) {
+            return texture;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inScaled = false;
+        Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), resourceId, options);
+        if (bitmap == null) {
+            throw new RuntimeException("Error loading texture.");
+        }
+
+        int name = genTexture(mipmaps ? GLES31.GL_LINEAR_MIPMAP_LINEAR : GLES31.GL_LINEAR);
+        GLUtils.texImage2D(GLES31.GL_TEXTURE_2D, 0, bitmap, 0);
+        if (mipmaps) {
+            GLES31.glGenerateMipmap(GLES31.GL_TEXTURE_2D);
+        }
+        texture = new Texture(key, name, bitmap.getWidth(), bitmap.getHeight());
+        bitmap.recycle();
+        return add(texture);
+    }
+
+    /**
+     * Returns an uninitialized render target.  Passes that ping-pong between targets of the
+     * same size and format must ask for different slots.  Targets are immutable (allocated
+     * with glTexStorage2D), so GL_RGBA ones can also be written by compute shaders as rgba8
+     * images.
+     *
+     * @param format GL_RGB or GL_RGBA, stored as unsigned bytes, or a sized color-renderable
+     *               format such as GL_RGB565 or GL_RGBA16F.
+     */
+    public synchronized Texture acquireRenderTarget(int width, int height, int format,
+            int slot) {
+        int internalFormat = getSizedFormat(format);
+        Key key = new Key(0, width, height, internalFormat, false, slot);
+        Texture texture = reuse(key);
+        if (texture != null) {
+            return texture;
+        }
+
+        int name = genTexture(GLES31.GL_LINEAR);
+        GLES31.glTexStorage2D(GLES31.GL_TEXTURE_2D, 1, internalFormat, width, height);
+        return add(new Texture(key, name, width, height));
+    }
+
+    /**
+     * Sized internal format of a render target format; GL_RGB and GL_RGBA mean 8 bits per
+     * channel.
+     */
+    static int getSizedFormat(int format) {
+        switch (format) {
+            case GLES31.GL_RGB:
+                return GLES31.GL_RGB8;
+            case GLES31.GL_RGBA:
+                return GLES31.GL_RGBA8;
+            default:
+                return format;
+        }
+    }
+
+    /**
+     * Returns an uninitialized GL_RGBA8 render target with a full, immutable mip chain,
+     * sampled with GL_LINEAR_MIPMAP_LINEAR.  The caller renders every level.
+     */
+    public synchronized Texture acquirePyramid(int width, int height, int slot) {
+        Key key = new Key(0, width, height, GLES31.GL_RGBA, true, slot);
+        Texture texture = reuse(key);
+        if (texture != null) {
+            return texture;
+        }
+
+        int name = genTexture(GLES31.GL_LINEAR_MIPMAP_LINEAR);
+        GLES31.glTexStorage2D(GLES31.GL_TEXTURE_2D, getLevelCount(width, height),
+                GLES31.GL_RGBA8, width, height);
+        return add(new Texture(key, name, width, height));
+    }
+
+    /**
+     * Number of levels of a full mip chain, down to 1x1.
+     */
+    static int getLevelCount(int width, int height) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+    }
+
+    /**
+     * Returns an immutable texture allocated with glTexStorage2D, which compute shaders can
+     * bind as an image.  Uses GL_NEAREST filtering, so integer formats are complete.
+     * Requires GLES 3.0; binding it as an image requires GLES 3.1.
+     *
+     * @param internalFormat Sized internal format, e.g. GL_RGBA32UI.
+     */
+    public synchronized Texture acquireStorage(int width, int height, int internalFormat,
+            int slot) {
+        Key key = new Key(0, width, height, internalFormat, false, slot);
+        Texture texture = reuse(key);
+        if (texture != null) {
+            return texture;
+        }
+
+        int name = genTexture(GLES31.GL_NEAREST);
+        GLES31.glTexParameteri(GLES31.GL_TEXTURE_2D, GLES31.GL_TEXTURE_MAG_FILTER, GLES31.GL_NEAREST);
+        GLES31.glTexStorage2D(GLES31.GL_TEXTURE_2D, 1, internalFormat, width, height);
+        return add(new Texture(key, name, width, height));
+    }
+
+    /**
+     * Returns a framebuffer with the texture as its color attachment.  Render thread only.
+     */
+    public synchronized int getFramebuffer(Texture texture) {
+        if (texture.mFramebuffer == 0) {
+            int[] fbo = new int[1];
+            GLES31.glGenFramebuffers(1, fbo, 0);
+            GLES31.glBindFramebuffer(GLES31.GL_FRAMEBUFFER, fbo[0]);
+            GLES31.glFramebufferTexture2D(GLES31.GL_FRAMEBUFFER, GLES31.GL_COLOR_ATTACHMENT0,
+                    GLES31.GL_TEXTURE_2D, texture.mTexture, 0);
+            texture.mFramebuffer = fbo[0];
+            mGeneration++;
+        }
+        return texture.mFramebuffer;
+    }
+
+    /**
+     * Drops one reference, deleting the texture and its framebuffer with the last one.
+     * Render thread only.
+     */
+    public synchronized void release(Texture texture) {
+        if (texture.mRefCount <= 0) {
+            throw new IllegalStateException("texture " + texture.mTexture + " already released");
+        }
+        if (--texture.mRefCount > 0) {
+            return;
+        }
+        delete(texture);
+        mTextures.remove(texture.mKey);
+    }
+
+    private Texture reuse(Key key) {
+        Texture texture = mTextures.get(key);
+        if (texture != null) {
+            texture.mRefCount++;
+            mShared++;
+        }
+        return texture;
+    }
+
+    private Texture add(Texture texture) {
+        mGeneration++;
+        texture.mRefCount = 1;
+        mTextures.put(texture.mKey, texture);
+        mCreated++;
+        mBytesResident += texture.mBytes;
+        mPeakBytesResident = Math.max(mPeakBytesResident, mBytesResident);
+        return texture;
+    }
+
+    private void delete(Texture texture) {
+        if (texture.mFramebuffer != 0) {
+            GLES31.glDeleteFramebuffers(1, new int[] { texture.mFramebuffer }, 0);
+            texture.mFramebuffer = 0;
+        }
+        GLES31.glDeleteTextures(1, new int[] { texture.mTexture }, 0);
+        mBytesResident -= texture.mBytes;
+        mGeneration++;
+    }
+
+    private static int genTexture(int minFilter) {
+        int[] texture = new int[1];
+        GLES31.glGenTextures(1, texture, 0);
+        if (texture[0] == 0) {
+            throw new RuntimeException("Error loading texture.");
+        }
+        GLES31.glBindTexture(GLES31.GL_TEXTURE_2D, texture[0]);
+        GLES31.glTexParameteri(GLES31.GL_TEXTURE_2D, GLES31.GL_TEXTURE_MIN_FILTER, minFilter);
+        GLES31.glTexParameteri(GLES31.GL_TEXTURE_2D, GLES31.GL_TEXTURE_MAG_FILTER, GLES31.GL_LINEAR);
+        GLES31.glTexParameteri(GLES31.GL_TEXTURE_2D, GLES31.GL_TEXTURE_WRAP_S, GLES31.GL_CLAMP_TO_EDGE);
+        GLES31.glTexParameteri(GLES31.GL_TEXTURE_2D, GLES31.GL_TEXTURE_WRAP_T, GLES31.GL_CLAMP_TO_EDGE);
+        return texture[0];
+    }
+
+    /**
+     * Size of the texture as the application sees it; drivers may pad rows or store RGB
+     * as RGBA, so the actual footprint can be somewhat larger.
+     */
+    static long estimateBytes(int width, int height, int format, boolean mipmaps) {
+        int bytesPerPixel = getBytesPerPixel(format);
+        long bytes = (long) width * height * bytesPerPixel;
+        while (mipmaps && (width > 1 || height > 1)) {
+            width = Math.max(1, width / 2);
+            height = Math.max(1, height / 2);
+            bytes += (long) width * height * bytesPerPixel;
+        }
+        return bytes;
+    }
+
+    private static int getBytesPerPixel(int format) {
+        switch (format) {
+            case GLES31.GL_RGB565:
+                return 2;
+            case GLES31.GL_RGB:
+            case GLES31.GL_RGB8:
+                return 3;
+            case GLES31.GL_RGBA16F:
+                return 8;
+            case GLES31.GL_RGBA32F:
+            case GLES31.GL_RGBA32UI:
+                return 16;
+            default:
+                return 4;
+        }
+    }
+
+    /**
+     * Changes whenever the pool creates a texture or framebuffer, which binds it, or
+     * deletes one, which unbinds it.  Lets {@link GlStateCache} forget stale bindings
+     * without a lock.
+     */
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    public synchronized long getBytesResident() {
+        return mBytesResident;
+    }
+
+    public synchronized long getPeakBytesResident() {
+        return mPeakBytesResident;
+    }
+
+    public synchronized int getTextureCount() {
+        return mTextures.size();
+    }
+
+    /**
+     * Writes the resident texture count and size to the log.
+     */
+    public synchronized void logStatistics() {
+        Log.d(TAG, "Textures: resident=" + mTextures.size()
+                + " bytes=" + mBytesResident / 1024 + "KiB"
+                + " peak=" + mPeakBytesResident / 1024 + "KiB"
+                + " created=" + mCreated + " shared=" + mShared);
+    }
+
+    /**
+     * Deletes every texture that is still referenced.  Halt the worker first.
+     */
+    public synchronized void release() {
+        if (!mTextures.isEmpty()) {
+            Log.w(TAG, mTextures.size() + " textures still referenced at release");
+        }
+        for (Texture texture : mTextures.values()) {
+            delete(texture);
+        }
+        mTextures.clear();
+    }
+}
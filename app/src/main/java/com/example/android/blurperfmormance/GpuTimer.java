@@ -0,0 +1,247 @@
+package com.example.android.blurperfmormance;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import android.opengl.GLES31;
+import android.util.Log;
+
+/**
+ * GPU time of labeled passes, measured with GL_EXT_disjoint_timer_query and averaged per
+ * algorithm.
+ * <p>
+ * Every {@link #begin(String)} / {@link #end()} pair records a GL_TIME_ELAPSED_EXT query into
+ * the current frame's set.  Sets are kept in a ring of {@link #FRAME_LATENCY} frames and a
+ * set is read back only when it comes round again, and only if its last query has finished,
+ * so reading never waits for the GPU; a set that isn't ready by then is dropped.  Results of
+ * a frame in which the GPU reported a disjoint event (e.g. a frequency change) are
+ * discarded.  Passes of the same label within a frame are added up.
+ * <p>
+ * Queries can't nest; a pass begun inside another is counted as part of the outer one.
+ * Create, use and release on the render thread; the averages may be read from any thread.
+ */
+public final class GpuTimer {
+    private static final String TAG = "GpuTimer";
+
+    private static final String EXTENSION = "GL_EXT_disjoint_timer_query";
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+    /** Frames a query set stays in flight before it is read. */
+    public static final int FRAME_LATENCY = 3;
+
+    private static final class FrameQueries {
+        int[] mQueries = new int[0];
+        String[] mLabels = new String[0];
+        String mScope;
+        int mCount;
+    }
+
+    private static final class PassStatistics {
+        long mTotalNanos;
+        int mFrames;
+        long mLastFrame = -1;
+    }
+
+    private final FrameQueries[] mFrames = new FrameQueries[FRAME_LATENCY];
+    private final int[] mResult = new int[1];
+    private FrameQueries mCurrent;
+    private long mFrameNumber;
+    private boolean mActive;
+    private int mDepth;
+    private String mScope = "";
+
+    // Scope -> label -> statistics, in the order first seen.
+    private final Map<String, Map<String, PassStatistics>> mStatistics =
+            new LinkedHashMap<String, Map<String, PassStatistics>>();
+    private int mDroppedFrames;
+    private int mDisjointFrames;
+
+    public GpuTimer() {
+        for (int i = 0; i < FRAME_LATENCY; i++) {
+            mFrames[i] = new FrameQueries();
+        }
+    }
+
+    /**
+     * Whether the current context supports timer queries.
+     */
+    public static boolean isSupported() {
+        String extensions = GLES31.glGetString(GLES31.GL_EXTENSIONS);
+        return extensions != null && extensions.contains(EXTENSION);
+    }
+
+    /**
+     * Sets the name results of the following frames are filed under, e.g. the algorithm.
+     */
+    public void setScope(String scope) {
+        mScope = scope;
+    }
+
+    /**
+     * Reads back the set recorded FRAME_LATENCY frames ago if it is ready, and starts
+     * recording a new one in its place.
+     */
+    public void beginFrame() {
+        FrameQueries frame = mFrames[(int) (mFrameNumber % FRAME_LATENCY)];
+        if (frame.mCount > 0) {
+            collect(frame, mFrameNumber - FRAME_LATENCY);
+        }
+        frame.mCount = 0;
+        frame.mScope = mScope;
+        mCurrent = frame;
+    }
+
+    public void endFrame() {
+        if (mActive) {
+            GLES31.glEndQuery(GL_TIME_ELAPSED_EXT);
+            mCurrent.mCount++;
+            mActive = false;
+        }
+        mDepth = 0;
+        mCurrent = null;
+        mFrameNumber++;
+    }
+
+    /**
+     * Starts timing a pass.  Outside a frame, and nested in another pass, the pass is
+     * counted as part of the outer one instead.
+     */
+    public void begin(String label) {
+        FrameQueries frame = mCurrent;
+        if (mDepth++ > 0 || frame == null) {
+            return;
+        }
+        if (frame.mCount == frame.mQueries.length) {
+            int length = Math.max(8, frame.mCount * 2);
+            int[] queries = Arrays.copyOf(frame.mQueries, length);
+            GLES31.glGenQueries(length - frame.mCount, queries, frame.mCount);
+            frame.mQueries = queries;
+            frame.mLabels = Arrays.copyOf(frame.mLabels, length);
+        }
+        frame.mLabels[frame.mCount] = label;
+        GLES31.glBeginQuery(GL_TIME_ELAPSED_EXT, frame.mQueries[frame.mCount]);
+        mActive = true;
+    }
+
+    public void end() {
+        if (mDepth == 0 || --mDepth > 0 || !mActive) {
+            return;
+        }
+        GLES31.glEndQuery(GL_TIME_ELAPSED_EXT);
+        mCurrent.mCount++;
+        mActive = false;
+    }
+
+    private void collect(FrameQueries frame, long frameNumber) {
+        // Queries finish in order, so the last one being ready means they all are.
+        GLES31.glGetQueryObjectuiv(frame.mQueries[frame.mCount - 1],
+                GLES31.GL_QUERY_RESULT_AVAILABLE, mResult, 0);
+        if (mResult[0] == 0) {
+            mDroppedFrames++;
+            return;
+        }
+        GLES31.glGetIntegerv(GL_GPU_DISJOINT_EXT, mResult, 0);
+        if (mResult[0] != 0) {
+            mDisjointFrames++;
+            return;
+        }
+
+        synchronized (mStatistics) {
+            Map<String, PassStatistics> passes = mStatistics.get(frame.mScope);
+            if (passes == null) {
+                passes = new LinkedHashMap<String, PassStatistics>();
+                mStatistics.put(frame.mScope, passes);
+            }
+            for (int i = 0; i < frame.mCount; i++) {
+                GLES31.glGetQueryObjectuiv(frame.mQueries[i], GLES31.GL_QUERY_RESULT,
+                        mResult, 0);
+                PassStatistics statistics = passes.get(frame.mLabels[i]);
+                if (statistics == null) {
+                    statistics = new PassStatistics();
+                    passes.put(frame.mLabels[i], statistics);
+                }
+                statistics.mTotalNanos += mResult[0] & 0xffffffffL;
+                if (statistics.mLastFrame != frameNumber) {
+                    statistics.mLastFrame = frameNumber;
+                    statistics.mFrames++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Average GPU milliseconds per frame of each pass timed under the scope, in the order
+     * the passes were first seen.  Empty if nothing was measured.
+     */
+    public Map<String, Float> getPassMillis(String scope) {
+        Map<String, Float> millis = new LinkedHashMap<String, Float>();
+        synchronized (mStatistics) {
+            Map<String, PassStatistics> passes = mStatistics.get(scope);
+            if (passes != null) {
+                for (Map.Entry<String, PassStatistics> entry : passes.entrySet()) {
+                    PassStatistics statistics = entry.getValue();
+                    millis.put(entry.getKey(),
+                            statistics.mTotalNanos / 1e6f / statistics.mFrames);
+                }
+            }
+        }
+        return millis;
+    }
+
+    /**
+     * Sum of {@link #getPassMillis(String)}.
+     */
+    public float getTotalMillis(String scope) {
+        float total = 0.0f;
+        for (float millis : getPassMillis(scope).values()) {
+            total += millis;
+        }
+        return total;
+    }
+
+    /**
+     * Writes the per-pass averages of the scope to the log.
+     */
+    public void logStatistics(String scope) {
+        Map<String, Float> millis = getPassMillis(scope);
+        if (millis.isEmpty()) {
+            return;
+        }
+        StringBuilder passes = new StringBuilder();
+        for (Map.Entry<String, Float> entry : millis.entrySet()) {
+            passes.append(' ').append(entry.getKey()).append('=')
+                    .append(String.format(Locale.US, "%.3f", entry.getValue()));
+        }
+        Log.d(TAG, scope + ": GPU ms per frame: total="
+                + String.format(Locale.US, "%.3f", getTotalMillis(scope)) + passes
+                + " (dropped " + mDroppedFrames + ", disjoint " + mDisjointFrames + ")");
+    }
+
+    /**
+     * Forgets the averages of the scope.
+     */
+    public void resetStatistics(String scope) {
+        synchronized (mStatistics) {
+            mStatistics.remove(scope);
+        }
+    }
+
+    /**
+     * Deletes the queries.  Results still in flight are lost.
+     */
+    public void release() {
+        for (FrameQueries frame : mFrames) {
+            if (frame.mQueries.length > 0) {
+                GLES31.glDeleteQueries(frame.mQueries.length, frame.mQueries, 0);
+            }
+            frame.mQueries = new int[0];
+            frame.mLabels = new String[0];
+            frame.mCount = 0;
+        }
+        mCurrent = null;
+        mActive = false;
+    }
+}
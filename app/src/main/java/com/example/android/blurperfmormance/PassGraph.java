@@ -0,0 +1,147 @@
+package com.example.android.blurperfmormance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The passes of a fragment-shader blur, declared as reads and writes of named textures
+ * and scheduled onto as few physical render targets as possible.
+ * <p>
+ * Each intermediate texture returned by {@link #newTexture()} is written by exactly one
+ * pass.  {@link #compile()} walks the passes in order and gives every intermediate a
+ * target that isn't holding a texture still to be read, so a chain of passes ping-pongs
+ * between two targets however long it is, and a single intermediate needs only one.
+ * Intermediates nobody reads (results picked up after the graph) stay live to the end.
+ */
+final class PassGraph {
+    /** The algorithm's source image. */
+    static final int SOURCE = -1;
+    /** The framebuffer the algorithm draws its result into. */
+    static final int OUTPUT = -2;
+
+    /** Targets a graph may use; pool slots from here on are free for other users. */
+    static final int MAX_TARGETS = 8;
+
+    static final class Pass {
+        final int mDirection;
+        final int mInput;
+        final int mOutput;
+        final String mLabel;        // names the pass in GpuTimer results
+        int mInputTarget = -1;      // physical target read, -1 for SOURCE
+        int mOutputTarget = -1;     // physical target written, -1 for OUTPUT
+
+        Pass(int direction, int input, int output, String label) {
+            mDirection = direction;
+            mInput = input;
+            mOutput = output;
+            mLabel = label;
+        }
+    }
+
+    private final ArrayList<Pass> mPasses = new ArrayList<Pass>();
+    private int mTextureCount;
+    private int[] mTargets;
+    private int mTargetCount;
+
+    /**
+     * Declares an intermediate texture of the target size.
+     */
+    int newTexture() {
+        return mTextureCount++;
+    }
+
+    /**
+     * Appends a pass of the algorithm's horizontal or vertical program.
+     *
+     * @param direction ShaderVariantCache.DIRECTION_HORIZONTAL or DIRECTION_VERTICAL.
+     * @param input {@link #SOURCE} or an intermediate written by an earlier pass.
+     * @param output {@link #OUTPUT} or an intermediate not written before.
+     */
+    void addPass(int direction, int input, int output) {
+        if (input == OUTPUT || input >= mTextureCount || output == SOURCE
+                || output >= mTextureCount) {
+            throw new IllegalArgumentException("undeclared texture in pass " + mPasses.size());
+        }
+        String label = (direction == ShaderVariantCache.DIRECTION_HORIZONTAL ? "H" : "V")
+                + mPasses.size();
+        mPasses.add(new Pass(direction, input, output, label));
+    }
+
+    /**
+     * Assigns physical targets to the intermediates.
+     */
+    void compile() {
+        int passCount = mPasses.size();
+        int[] writer = new int[mTextureCount];
+        int[] lastRead = new int[mTextureCount];
+        Arrays.fill(writer, -1);
+        Arrays.fill(lastRead, passCount);       // unread results stay live
+        for (int i = 0; i < passCount; i++) {
+            Pass pass = mPasses.get(i);
+            if (pass.mInput >= 0) {
+                if (writer[pass.mInput] < 0) {
+                    throw new IllegalStateException("pass " + i + " reads texture "
+                            + pass.mInput + " before it is written");
+                }
+                lastRead[pass.mInput] = i;
+            }
+            if (pass.mOutput >= 0) {
+                if (writer[pass.mOutput] >= 0) {
+                    throw new IllegalStateException("texture " + pass.mOutput
+                            + " is written twice");
+                }
+                writer[pass.mOutput] = i;
+            }
+        }
+
+        // Linear scan: a pass's output is allocated before its input is freed, so a pass
+        // never reads and writes the same target.
+        mTargets = new int[mTextureCount];
+        boolean[] busy = new boolean[MAX_TARGETS];
+        mTargetCount = 0;
+        for (int i = 0; i < passCount; i++) {
+            Pass pass = mPasses.get(i);
+            if (pass.mOutput >= 0) {
+                int target = 0;
+                while (busy[target]) {
+                    if (++target == MAX_TARGETS) {
+                        throw new IllegalStateException("more than " + MAX_TARGETS
+                                + " live textures");
+                    }
+                }
+                busy[target] = true;
+                mTargets[pass.mOutput] = target;
+                mTargetCount = Math.max(mTargetCount, target + 1);
+                pass.mOutputTarget = target;
+            }
+            if (pass.mInput >= 0) {
+                pass.mInputTarget = mTargets[pass.mInput];
+                if (lastRead[pass.mInput] == i) {
+                    busy[pass.mInputTarget] = false;
+                }
+            }
+        }
+    }
+
+    int getPassCount() {
+        return mPasses.size();
+    }
+
+    Pass getPass(int index) {
+        return mPasses.get(index);
+    }
+
+    /**
+     * Number of physical targets the compiled graph uses.
+     */
+    int getTargetCount() {
+        return mTargetCount;
+    }
+
+    /**
+     * Physical target of an intermediate in the compiled graph.
+     */
+    int getTarget(int texture) {
+        return mTargets[texture];
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.android.blurperfmormance;
+
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of linked program binaries.
+ * <p>
+ * Programs are stored in the app's cache directory under a hash of their shader sources
+ * and of GL_RENDERER / GL_VERSION, so a driver update never picks up an old binary.  A
+ * binary the driver rejects anyway is deleted and the program is compiled from source.
+ * <p>
+ * Must be created with a GLES3 context current.  loadProgram() may be called from any
+ * thread whose context is in the same share group.
+ */
+public final class ProgramBinaryCache {
+    private static final String TAG = "ProgramBinaryCache";
+
+    // Bumped whenever the file layout or the way programs are linked changes.  2: attribute
+    // locations bound to those of FullscreenTriangle.
+    private static final int FILE_VERSION = 2;
+
+    private final File mDirectory;
+    private final String mDeviceKey;
+    private final boolean mEnabled;
+
+    private final AtomicInteger mHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+    private final AtomicInteger mStale = new AtomicInteger();
+    private final AtomicLong mSavedNanos = new AtomicLong();
+
+    /**
+     * @param directory Directory the binaries are kept in, created if necessary.
+     */
+    public ProgramBinaryCache(File directory) {
+        mDirectory = directory;
+        mDeviceKey = GLES30.glGetString(GLES30.GL_RENDERER) + "\n"
+                + GLES30.glGetString(GLES30.GL_VERSION);
+
+        int[] formatCount = new int[1];
+        GLES30.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formatCount, 0);
+        mEnabled = formatCount[0] > 0 && (mDirectory.isDirectory() || mDirectory.mkdirs());
+        if (!mEnabled) {
+            Log.w(TAG, "Program binaries not available, formats=" + formatCount[0]);
+        }
+    }
+
+    /**
+     * Returns a linked program for the sources, restored from disk when possible.
+     */
+    public int loadProgram(String vertexShaderCode, String fragmentShaderCode) {
+        if (!mEnabled) {
+            return ProgramData.createProgram(vertexShaderCode, fragmentShaderCode, false);
+        }
+
+        File file = new File(mDirectory, hash(vertexShaderCode, fragmentShaderCode) + ".bin");
+        if (file.exists()) {
+            long startTime = System.nanoTime();
+            long[] compileNanos = new long[1];
+            int program = restore(file, compileNanos);
+            if (program != 0) {
+                mHits.incrementAndGet();
+                mSavedNanos.addAndGet(compileNanos[0] - (System.nanoTime() - startTime));
+                return program;
+            }
+            mStale.incrementAndGet();
+            if (!file.delete()) {
+                Log.w(TAG, "Unable to delete stale binary " + file);
+            }
+        }
+
+        mMisses.incrementAndGet();
+        long startTime = System.nanoTime();
+        int program = ProgramData.createProgram(vertexShaderCode, fragmentShaderCode, true);
+        long compileNanos = System.nanoTime() - startTime;
+        try {
+            store(program, file, compileNanos);
+        } catch (IOException ioe) {
+            Log.w(TAG, "Unable to save program binary " + file, ioe);
+        }
+        return program;
+    }
+
+    /**
+     * Reads the binary and hands it to the driver.  Returns 0 if the file is unusable or the
+     * driver rejects the binary.
+     *
+     * @param compileNanos Receives the source compile time recorded when the file was saved.
+     */
+    private int restore(File file, long[] compileNanos) {
+        int format;
+        byte[] bytes;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FILE_VERSION) {
+                return 0;
+            }
+            compileNanos[0] = in.readLong();
+            format = in.readInt();
+            bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+        } catch (IOException ioe) {
+            Log.w(TAG, "Unable to read program binary " + file, ioe);
+            return 0;
+        } finally {
+            closeQuietly(in);
+        }
+
+        ByteBuffer binary = ByteBuffer.allocateDirect(bytes.length).order(ByteOrder.nativeOrder());
+        binary.put(bytes).position(0);
+
+        int program = GLES30.glCreateProgram();
+        GLES30.glProgramBinary(program, format, binary, bytes.length);
+        int[] linkStatus = new int[1];
+        GLES30.glGetProgramiv(program, GLES30.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != GLES30.GL_TRUE) {
+            GLES30.glDeleteProgram(program);
+            return 0;
+        }
+        return program;
+    }
+
+    private void store(int program, File file, long compileNanos) throws IOException {
+        int[] length = new int[1];
+        GLES30.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0) {
+            return;
+        }
+        ByteBuffer binary = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+        int[] format = new int[1];
+        GLES30.glGetProgramBinary(program, length[0], length, 0, format, 0, binary);
+        byte[] bytes = new byte[length[0]];
+        binary.position(0);
+        binary.get(bytes);
+
+        // Write next to the target and rename, so a concurrent reader never sees half a file.
+        File tmpFile = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            out.writeInt(FILE_VERSION);
+            out.writeLong(compileNanos);
+            out.writeInt(format[0]);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } finally {
+            closeQuietly(out);
+        }
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("rename to " + file + " failed");
+        }
+    }
+
+    private String hash(String vertexShaderCode, String fragmentShaderCode) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new RuntimeException(nsae);       // SHA-1 is always available
+        }
+        digest.update(mDeviceKey.getBytes());
+        digest.update((byte) 0);
+        digest.update(vertexShaderCode.getBytes());
+        digest.update((byte) 0);
+        digest.update(fragmentShaderCode.getBytes());
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Writes hit/miss counts and the compile time saved by restored binaries to the log.
+     */
+    public void logStatistics() {
+        Log.d(TAG, "Program binaries: hits=" + mHits.get() + " misses=" + mMisses.get()
+                + " stale=" + mStale.get() + " saved=" + mSavedNanos.get() / 1000000 + "ms");
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.android.blurperfmormance;
+
+import android.opengl.GLES31;
+
+/**
+ * A linked blur program with its attribute and uniform locations.
+ * <p>
+ * mFbo and mTextureDataHandle describe the pass the program is about to be drawn for and
+ * are set by BlurSquare right before each draw.
+ */
+class ProgramData {
+    public int mProgram;
+    public int mTextureHandle;
+    public int mTextureDataHandle;
+    public int mWidthHandle;
+    public int mHeightHandle;
+    public int mMipMapHandle;
+    public int mRadiusHandle;
+    public int mWeightsHandle;
+    public int mOffsetsHandle;
+    public int mBlendTextureHandle;
+    public int mBlendHandle;
+    public int mFbo;
+
+    // Uniform values last uploaded through GlStateCache.
+    final GlStateCache.UniformValues mUniformValues = new GlStateCache.UniformValues();
+
+    /**
+     * Creates the program, through the binary cache if there is one, and looks up the
+     * handles used by BlurSquare.  May be called on any thread with a current context in
+     * the renderer's share group.
+     */
+    public static ProgramData create(String vertexShaderCode, String fragmentShaderCode,
+            ProgramBinaryCache binaryCache) {
+        ProgramData programData = new ProgramData();
+        programData.mProgram = binaryCache != null
+                ? binaryCache.loadProgram(vertexShaderCode, fragmentShaderCode)
+                : createProgram(vertexShaderCode, fragmentShaderCode, false);
+        programData.lookupHandles();
+        return programData;
+    }
+
+    /**
+     * Compiles and links a program from source.
+     *
+     * @param retrievable Hint that glGetProgramBinary() will be called on the program.
+     */
+    static int createProgram(String vertexShaderCode, String fragmentShaderCode,
+            boolean retrievable) {
+        int vertexShader = loadShader(GLES31.GL_VERTEX_SHADER, vertexShaderCode);
+        int fragmentShader = loadShader(GLES31.GL_FRAGMENT_SHADER, fragmentShaderCode);
+
+        int program = GLES31.glCreateProgram();
+        GLES31.glAttachShader(program, vertexShader);
+        GLES31.glAttachShader(program, fragmentShader);
+        GLES31.glBindAttribLocation(program, FullscreenTriangle.POSITION_LOCATION, "aPosition");
+        GLES31.glBindAttribLocation(program, FullscreenTriangle.TEX_COORD_LOCATION, "aTexCoord");
+        if (retrievable) {
+            GLES31.glProgramParameteri(program, GLES31.GL_PROGRAM_BINARY_RETRIEVABLE_HINT,
+                    GLES31.GL_TRUE);
+        }
+        GLES31.glLinkProgram(program);
+
+        // The program keeps the compiled code, the shader objects are no longer needed.
+        GLES31.glDetachShader(program, vertexShader);
+        GLES31.glDetachShader(program, fragmentShader);
+        GLES31.glDeleteShader(vertexShader);
+        GLES31.glDeleteShader(fragmentShader);
+
+        int[] linkStatus = new int[1];
+        GLES31.glGetProgramiv(program, GLES31.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != GLES31.GL_TRUE) {
+            String log = GLES31.glGetProgramInfoLog(program);
+            GLES31.glDeleteProgram(program);
+            throw new RuntimeException("Could not link program: " + log);
+        }
+        return program;
+    }
+
+    /**
+     * Compiles and links a compute program from source.  Requires GLES 3.1.
+     */
+    static int createComputeProgram(String computeShaderCode) {
+        int computeShader = loadShader(GLES31.GL_COMPUTE_SHADER, computeShaderCode);
+
+        int program = GLES31.glCreateProgram();
+        GLES31.glAttachShader(program, computeShader);
+        GLES31.glLinkProgram(program);
+        GLES31.glDetachShader(program, computeShader);
+        GLES31.glDeleteShader(computeShader);
+
+        int[] linkStatus = new int[1];
+        GLES31.glGetProgramiv(program, GLES31.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != GLES31.GL_TRUE) {
+            String log = GLES31.glGetProgramInfoLog(program);
+            GLES31.glDeleteProgram(program);
+            throw new RuntimeException("Could not link compute program: " + log);
+        }
+        return program;
+    }
+
+    private static int loadShader(int type, String shaderCode) {
+        int shader = GLES31.glCreateShader(type);
+
+        GLES31.glShaderSource(shader, shaderCode);
+        GLES31.glCompileShader(shader);
+
+        return shader;
+    }
+
+    private void lookupHandles() {
+        mWidthHandle = GLES31.glGetUniformLocation(mProgram, "uWidth");
+        mHeightHandle = GLES31.glGetUniformLocation(mProgram, "uHeight");
+        mRadiusHandle = GLES31.glGetUniformLocation(mProgram, "uRadius");
+        mMipMapHandle = GLES31.glGetUniformLocation(mProgram, "uMipLevel");
+        mTextureHandle = GLES31.glGetUniformLocation(mProgram, "uTexture");
+        mWeightsHandle = GLES31.glGetUniformLocation(mProgram, "uWeight");
+        mOffsetsHandle = GLES31.glGetUniformLocation(mProgram, "uOffset");
+        mBlendTextureHandle = GLES31.glGetUniformLocation(mProgram, "uBlendTexture");
+        mBlendHandle = GLES31.glGetUniformLocation(mProgram, "uBlend");
+    }
+
+    /**
+     * Deletes the program.  Must be called with a context of the share group current.
+     */
+    public void release() {
+        GLES31.glDeleteProgram(mProgram);
+        mProgram = 0;
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.android.blurperfmormance;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Cache of radius-specialized blur programs.
+ * <p>
+ * Each algorithm generates an unrolled program per pass direction and tap count, so a
+ * small radius only pays for the taps it needs.  Programs are kept in LRU order and the
+ * least recently used one is deleted once the configured limit is exceeded.  Variants can
+ * be compiled ahead of time on a {@link SharedContextWorker}; they become resident at the
+ * next {@link #beginFrame()}, and a variant that is needed before that is compiled on the
+ * calling thread.  Nothing is added between get() calls of a frame other than the programs
+ * it asks for, so with a limit at least the programs one frame uses, none of them is deleted
+ * before it is drawn.
+ * <p>
+ * beginFrame(), get() and release() must be called on the render thread.  prefetch() may
+ * also be called from the worker, e.g. by an algorithm that is constructed in the
+ * background.
+ */
+public final class ShaderVariantCache {
+    private static final String TAG = "ShaderVariantCache";
+
+    public static final int DIRECTION_HORIZONTAL = 0;
+    public static final int DIRECTION_VERTICAL = 1;
+
+    /**
+     * Smallest program limit: the horizontal and vertical pass of an algorithm and the
+     * upsampler drawing its result.
+     */
+    public static final int MIN_PROGRAMS = 3;
+
+    /**
+     * Identifies a program variant.  Keys are immutable, so callers can allocate them once
+     * and look programs up without per-frame garbage.
+     */
+    public static final class Key {
+        private final String mAlgorithm;
+        private final int mDirection;
+        private final int mTapCount;
+        private final int mHashCode;
+
+        public Key(String algorithm, int direction, int tapCount) {
+            mAlgorithm = algorithm;
+            mDirection = direction;
+            mTapCount = tapCount;
+            mHashCode = (algorithm.hashCode() * 31 + direction) * 31 + tapCount;
+        }
+
+        public int getDirection() {
+            return mDirection;
+        }
+
+        public int getTapCount() {
+            return mTapCount;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mDirection == other.mDirection && mTapCount == other.mTapCount
+                    && mAlgorithm.equals(other.mAlgorithm);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        @Override
+        public String toString() {
+            return mAlgorithm + (mDirection == DIRECTION_HORIZONTAL ? "/h/" : "/v/") + mTapCount;
+        }
+    }
+
+    /**
+     * Supplies the shader sources of a variant.
+     */
+    public interface Source {
+        String getVertexShaderCode(Key key);
+        String getFragmentShaderCode(Key key);
+    }
+
+    private static class Compiled {
+        final Key mKey;
+        final ProgramData mProgramData;
+
+        Compiled(Key key, ProgramData programData) {
+            mKey = key;
+            mProgramData = programData;
+        }
+    }
+
+    private final int mMaxPrograms;
+    private final SharedContextWorker mWorker;
+    private final ProgramBinaryCache mBinaryCache;
+    private final LinkedHashMap<Key, ProgramData> mPrograms;
+    private final HashSet<Key> mPending = new HashSet<Key>();
+    private final ConcurrentLinkedQueue<Compiled> mCompiled = new ConcurrentLinkedQueue<Compiled>();
+
+    private int mHits;
+    private int mMisses;
+    private int mEvictions;
+
+    /**
+     * @param worker Worker used for ahead-of-time compilation, or null to compile every
+     *               variant on demand.
+     * @param binaryCache Persistent cache programs are restored from, or null to always
+     *                    compile from source.
+     * @param maxPrograms Number of linked programs kept before the least recently used one
+     *                    is deleted, at least {@link #MIN_PROGRAMS}.  Must allow for the
+     *                    programs of one frame.
+     */
+    public ShaderVariantCache(SharedContextWorker worker, ProgramBinaryCache binaryCache,
+            int maxPrograms) {
+        if (maxPrograms < MIN_PROGRAMS) {
+            throw new IllegalArgumentException("maxPrograms must be >= " + MIN_PROGRAMS + ": "
+                    + maxPrograms);
+        }
+        mWorker = worker;
+        mBinaryCache = binaryCache;
+        mMaxPrograms = maxPrograms;
+        mPrograms = new LinkedHashMap<Key, ProgramData>(maxPrograms, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, ProgramData> eldest) {
+                if (size() <= mMaxPrograms) {
+                    return false;
+                }
+                eldest.getValue().release();
+                mEvictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Makes the programs the worker compiled since the last frame resident, which may
+     * evict others.  Call at the start of every frame, before any get().
+     */
+    public synchronized void beginFrame() {
+        drainCompiled();
+    }
+
+    /**
+     * Returns the program for the key, compiling it now if it is not resident.
+     */
+    public synchronized ProgramData get(Key key, Source source) {
+        ProgramData programData = mPrograms.get(key);
+        if (programData != null) {
+            mHits++;
+            return programData;
+        }
+
+        mMisses++;
+        programData = ProgramData.create(source.getVertexShaderCode(key),
+                source.getFragmentShaderCode(key), mBinaryCache);
+        mPrograms.put(key, programData);
+        return programData;
+    }
+
+    /**
+     * Compiles the variant on the worker unless it is resident or already queued.
+     */
+    public synchronized void prefetch(final Key key, Source source) {
+        if (mWorker == null || mPrograms.containsKey(key) || mPending.contains(key)) {
+            return;
+        }
+        mPending.add(key);
+
+        // Generate the sources here; the Source is not required to be thread-safe.
+        final String vertexShaderCode = source.getVertexShaderCode(key);
+        final String fragmentShaderCode = source.getFragmentShaderCode(key);
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                ProgramData programData =
+                        ProgramData.create(vertexShaderCode, fragmentShaderCode, mBinaryCache);
+                GLES20.glFinish();
+                mCompiled.add(new Compiled(key, programData));
+            }
+        });
+    }
+
+    private synchronized void drainCompiled() {
+        Compiled compiled;
+        while ((compiled = mCompiled.poll()) != null) {
+            mPending.remove(compiled.mKey);
+            if (mPrograms.containsKey(compiled.mKey)) {
+                // Compiled on demand while the worker was busy with it.
+                compiled.mProgramData.release();
+            } else {
+                mPrograms.put(compiled.mKey, compiled.mProgramData);
+            }
+        }
+    }
+
+    public synchronized int getHitCount() {
+        return mHits;
+    }
+
+    public synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictions;
+    }
+
+    /**
+     * Deletes all resident programs.  Halt the worker first, so nothing arrives afterwards.
+     */
+    public synchronized void release() {
+        drainCompiled();
+        Log.d(TAG, "Releasing " + mPrograms.size() + " programs, hits=" + mHits
+                + " misses=" + mMisses + " evictions=" + mEvictions);
+        for (ProgramData programData : mPrograms.values()) {
+            programData.release();
+        }
+        mPrograms.clear();
+        mPending.clear();
+    }
+}
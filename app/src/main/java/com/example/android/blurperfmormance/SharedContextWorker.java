@@ -0,0 +1,81 @@
+package com.example.android.blurperfmormance;
+
+import android.opengl.EGLContext;
+import android.util.Log;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Background thread with its own EGL context in the renderer's share group.
+ * <p>
+ * Tasks run in the order they were posted.  A task must call glFinish() before it hands
+ * the programs, textures or buffers it created to another thread, so they are complete by
+ * the time the render thread uses them.  Framebuffers and vertex arrays are not shared
+ * between contexts and must be created on the render thread.
+ */
+public class SharedContextWorker extends Thread {
+    private static final String TAG = "SharedContextWorker";
+
+    private final EGLContext mSharedContext;
+    private final LinkedBlockingQueue<Runnable> mTasks = new LinkedBlockingQueue<Runnable>();
+    private volatile boolean mDone;
+
+    /**
+     * @param eglCore The renderer's EglCore; its context is shared with the worker.
+     */
+    public SharedContextWorker(EglCore eglCore) {
+        super(TAG);
+        mSharedContext = eglCore.getContext();
+    }
+
+    @Override
+    public void run() {
+        EglCore eglCore = new EglCore(mSharedContext, EglCore.FLAG_TRY_GLES3);
+        OffscreenSurface surface = new OffscreenSurface(eglCore, 1, 1);
+        surface.makeCurrent();
+
+        try {
+            while (!mDone) {
+                Runnable task;
+                try {
+                    task = mTasks.take();
+                } catch (InterruptedException ie) {
+                    break;
+                }
+                if (mDone) {
+                    break;
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException re) {
+                    Log.w(TAG, "Background GL task failed", re);
+                }
+            }
+        } finally {
+            surface.release();
+            eglCore.release();
+        }
+        Log.d(TAG, "Worker thread exiting");
+    }
+
+    /**
+     * Queues a task to run with the shared context current.
+     */
+    public void post(Runnable task) {
+        mTasks.add(task);
+    }
+
+    /**
+     * Drops pending tasks, stops the thread and waits for it to release its context.
+     */
+    public void halt() {
+        mDone = true;
+        mTasks.clear();
+        interrupt();
+        try {
+            join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.android.blurperfmormance;
+
+/**
+ * Shaders that stretch a reduced-size blur result over the full target.
+ * <p>
+ * The bicubic filter is a cubic B-spline evaluated with four bilinear fetches; it hides the
+ * blockiness bilinear upsampling shows at 4x and 8x.  Both programs take the size of the
+ * texture they sample in uWidth / uHeight, so BlurSquare can draw them like a blur pass.
+ */
+final class Upsampler {
+    public static final int FILTER_BILINEAR = 0;
+    public static final int FILTER_BICUBIC = 1;
+
+    private static final String ALGORITHM = "Upsample";
+
+    private static final String VERTEX_SHADER_CODE =
+            "#version 300 es\n" +
+            "precision mediump float;\n" +
+            "in vec4 aPosition;\n" +
+            "in vec2 aTexCoord;\n" +
+            "out vec2 vTexCoord;\n" +
+
+            "void main()\n" +
+            "{\n" +
+            "    vTexCoord = aTexCoord;\n" +
+            "    gl_Position = aPosition;\n" +
+            "}";
+
+    private static final String BILINEAR_FRAGMENT_SHADER_CODE =
+            "#version 300 es\n" +
+            "precision mediump float;\n" +
+            "uniform sampler2D uTexture;\n" +
+            "in vec2 vTexCoord;\n" +
+            "out vec4 fragColor;\n" +
+
+            "void main()\n" +
+            "{\n" +
+            "    fragColor = texture(uTexture, vTexCoord);\n" +
+            "}";
+
+    private static final String BICUBIC_FRAGMENT_SHADER_CODE =
+            "#version 300 es\n" +
+            "precision highp float;\n" +
+            "uniform sampler2D uTexture;\n" +
+            "uniform float uWidth;\n" +
+            "uniform float uHeight;\n" +
+            "in vec2 vTexCoord;\n" +
+            "out vec4 fragColor;\n" +
+
+            "vec4 cubic(float v)\n" +
+            "{\n" +
+            "    vec4 n = vec4(1.0, 2.0, 3.0, 4.0) - v;\n" +
+            "    vec4 s = n * n * n;\n" +
+            "    float x = s.x;\n" +
+            "    float y = s.y - 4.0 * s.x;\n" +
+            "    float z = s.z - 4.0 * s.y + 6.0 * s.x;\n" +
+            "    float w = 6.0 - x - y - z;\n" +
+            "    return vec4(x, y, z, w) * (1.0 / 6.0);\n" +
+            "}\n" +
+
+            "void main()\n" +
+            "{\n" +
+            "    vec2 size = vec2(uWidth, uHeight);\n" +
+            "    vec2 coord = vTexCoord * size - 0.5;\n" +
+            "    vec2 f = fract(coord);\n" +
+            "    coord -= f;\n" +
+            "    vec4 xcubic = cubic(f.x);\n" +
+            "    vec4 ycubic = cubic(f.y);\n" +
+            "    vec4 c = coord.xxyy + vec2(-0.5, 1.5).xyxy;\n" +
+            "    vec4 s = vec4(xcubic.xz + xcubic.yw, ycubic.xz + ycubic.yw);\n" +
+            "    vec4 offset = (c + vec4(xcubic.yw, ycubic.yw) / s) / size.xxyy;\n" +
+            "    vec4 sample0 = texture(uTexture, offset.xz);\n" +
+            "    vec4 sample1 = texture(uTexture, offset.yz);\n" +
+            "    vec4 sample2 = texture(uTexture, offset.xw);\n" +
+            "    vec4 sample3 = texture(uTexture, offset.yw);\n" +
+            "    float sx = s.x / (s.x + s.y);\n" +
+            "    float sy = s.z / (s.z + s.w);\n" +
+            "    fragColor = mix(mix(sample3, sample2, sx), mix(sample1, sample0, sx), sy);\n" +
+            "}";
+
+    private static final ShaderVariantCache.Key[] KEYS = {
+            new ShaderVariantCache.Key(ALGORITHM, ShaderVariantCache.DIRECTION_HORIZONTAL,
+                    FILTER_BILINEAR),
+            new ShaderVariantCache.Key(ALGORITHM, ShaderVariantCache.DIRECTION_HORIZONTAL,
+                    FILTER_BICUBIC),
+    };
+
+    /**
+     * Supplies the upsampling shaders.  The filter is carried in the key's tap count.
+     */
+    public static final ShaderVariantCache.Source SOURCE = new ShaderVariantCache.Source() {
+        @Override
+        public String getVertexShaderCode(ShaderVariantCache.Key key) {
+            return VERTEX_SHADER_CODE;
+        }
+
+        @Override
+        public String getFragmentShaderCode(ShaderVariantCache.Key key) {
+            return key.getTapCount() == FILTER_BICUBIC
+                    ? BICUBIC_FRAGMENT_SHADER_CODE : BILINEAR_FRAGMENT_SHADER_CODE;
+        }
+    };
+
+    private Upsampler() {
+    }
+
+    /**
+     * Returns the program cache key of the filter.
+     */
+    public static ShaderVariantCache.Key getKey(int filter) {
+        if (filter != FILTER_BILINEAR && filter != FILTER_BICUBIC) {
+            throw new IllegalArgumentException("unknown filter " + filter);
+        }
+        return KEYS[filter];
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.android.blurperfmormance;
+
+import android.os.Looper;
+import android.util.Log;
+import android.view.Choreographer;
+
+/**
+ * Paces frames to the display's vsync with {@link Choreographer}, which needs a Looper, so
+ * the callbacks run on a thread of the clock's own and hand the vsync times to the render
+ * thread.
+ * <p>
+ * Each frame is drawn once per vsync and shows the time of the vsync it started on.  It asks
+ * to be presented {@link #PRESENTATION_LATENCY} refresh periods later, so a frame that
+ * renders quickly isn't shown early and the animation advances at a steady rate; one that
+ * is already late is shown as soon as possible.  If the render thread falls behind, the
+ * vsyncs it missed are skipped rather than queued.
+ */
+public final class VsyncFrameClock implements FrameClock {
+    private static final String TAG = "VsyncFrameClock";
+
+    /** Refresh periods between the vsync a frame starts on and its presentation. */
+    public static final int PRESENTATION_LATENCY = 2;
+
+    // Longest wait for a vsync, e.g. while the display is off; the frame then goes ahead.
+    private static final long MAX_WAIT_MS = 100;
+
+    private final long mRefreshPeriodNanos;
+    private final Object mLock = new Object();      // guards mLatestVsync, mLooper, mReleased
+    private long mLatestVsync;
+    private long mLastFrame;
+    private Looper mLooper;
+    private boolean mReleased;
+    private long mMissedVsyncs;
+
+    private final Thread mThread = new Thread("VsyncFrameClock") {
+        @Override
+        public void run() {
+            Looper.prepare();
+            synchronized (mLock) {
+                if (mReleased) {
+                    return;
+                }
+                mLooper = Looper.myLooper();
+            }
+            final Choreographer choreographer = Choreographer.getInstance();
+            choreographer.postFrameCallback(new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    synchronized (mLock) {
+                        if (mLatestVsync > mLastFrame) {
+                            mMissedVsyncs++;
+                        }
+                        mLatestVsync = frameTimeNanos;
+                        mLock.notifyAll();
+                    }
+                    choreographer.postFrameCallback(this);
+                }
+            });
+            Looper.loop();
+        }
+    };
+
+    /**
+     * Starts listening for vsync.
+     *
+     * @param refreshPeriodNanos Refresh period of the display the frames are shown on.
+     */
+    public VsyncFrameClock(long refreshPeriodNanos) {
+        mRefreshPeriodNanos = refreshPeriodNanos;
+        mThread.start();
+    }
+
+    @Override
+    public long awaitFrame() {
+        synchronized (mLock) {
+            long deadline = System.currentTimeMillis() + MAX_WAIT_MS;
+            while (mLatestVsync <= mLastFrame && !mReleased) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    // No vsync in time; draw anyway so the loop keeps checking its surface.
+                    mLastFrame = Math.max(mLastFrame + 1, System.nanoTime());
+                    return mLastFrame;
+                }
+                try {
+                    mLock.wait(wait);
+                } catch (InterruptedException ie) {
+                    throw new RuntimeException(ie);     // not expected
+                }
+            }
+            mLastFrame = Math.max(mLastFrame + 1, mLatestVsync);
+            return mLastFrame;
+        }
+    }
+
+    @Override
+    public long getPresentationTime() {
+        synchronized (mLock) {
+            return mLastFrame + PRESENTATION_LATENCY * mRefreshPeriodNanos;
+        }
+    }
+
+    /**
+     * Vsyncs that passed without a frame being drawn.
+     */
+    public long getMissedVsyncs() {
+        synchronized (mLock) {
+            return mMissedVsyncs;
+        }
+    }
+
+    @Override
+    public void release() {
+        synchronized (mLock) {
+            mReleased = true;
+            if (mLooper != null) {
+                mLooper.quit();
+            }
+            mLock.notifyAll();
+        }
+        try {
+            mThread.join();
+        } catch (InterruptedException ie) {
+            throw new RuntimeException(ie);     // not expected
+        }
+        Log.d(TAG, "Released after " + mMissedVsyncs + " missed vsyncs");
+    }
+}
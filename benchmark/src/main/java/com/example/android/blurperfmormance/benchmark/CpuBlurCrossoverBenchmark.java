@@ -0,0 +1,80 @@
+package com.example.android.blurperfmormance.benchmark;
+
+import com.example.android.blurperfmormance.CpuBlur;
+import com.example.android.blurperfmormance.CpuGaussianBlur;
+import com.example.android.blurperfmormance.CpuStackBlur;
+import com.example.android.blurperfmormance.RecursiveGaussianBlur;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of the FIR blur, with the kernel of BlurSquareTwoPasses, against the recursive one
+ * over sigma, on a full HD image: the FIR grows with the radius and the recursive one stays
+ * flat, and the sigma where they cross is where the recursive one starts paying off.  The
+ * stack blur, also flat but only an approximation, is there for scale.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CpuBlurCrossoverBenchmark {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    @Param({ "fir", "recursive", "stack" })
+    public String mEngine;
+
+    @Param({ "1", "2", "3", "4", "6", "8", "16", "32", "100" })
+    public float mSigma;
+
+    private ForkJoinPool mPool;
+    private CpuBlur mBlur;
+    private int[] mSource;
+    private int[] mResult;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0);
+        mSource = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < mSource.length; i++) {
+            mSource[i] = random.nextInt();
+        }
+        mResult = new int[WIDTH * HEIGHT];
+        mPool = new ForkJoinPool();
+        if ("fir".equals(mEngine)) {
+            mBlur = new CpuGaussianBlur(mPool);
+        } else if ("recursive".equals(mEngine)) {
+            mBlur = new RecursiveGaussianBlur(mPool);
+        } else {
+            mBlur = new CpuStackBlur(mPool);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPool.shutdown();
+    }
+
+    @Benchmark
+    public int[] blur() {
+        mBlur.blur(mSource, mResult, WIDTH, HEIGHT, mSigma);
+        return mResult;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.android.blurperfmormance.benchmark;
+
+import com.example.android.blurperfmormance.CpuGaussianBlur;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling of the CPU reference blur with the number of worker threads, on a full HD image.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CpuGaussianBlurBenchmark {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    @Param({ "1", "2", "4", "8" })
+    public int mThreads;
+
+    @Param({ "2", "8" })
+    public float mSigma;
+
+    private ForkJoinPool mPool;
+    private CpuGaussianBlur mBlur;
+    private int[] mSource;
+    private int[] mResult;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0);
+        mSource = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < mSource.length; i++) {
+            mSource[i] = random.nextInt();
+        }
+        mResult = new int[WIDTH * HEIGHT];
+        mPool = new ForkJoinPool(mThreads);
+        mBlur = new CpuGaussianBlur(mPool);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPool.shutdown();
+    }
+
+    @Benchmark
+    public int[] blur() {
+        mBlur.blur(mSource, mResult, WIDTH, HEIGHT, mSigma);
+        return mResult;
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.android.blurperfmormance.benchmark;
+
+import com.example.android.blurperfmormance.FrameTimeHistogram;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording a frame, which the render loop does every frame and must not
+ * allocate, and of the periodic percentile report.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameTimeHistogramBenchmark {
+    private static final long DEADLINE_NANOS = 1000000000L / 60;
+    private static final int SAMPLE_COUNT = 1024;
+
+    private final long[] mFrameNanos = new long[SAMPLE_COUNT];
+    private FrameTimeHistogram mHistogram;
+    private int mFrame;
+
+    @Setup
+    public void setUp() {
+        // Mostly on time, with a tail of slow frames.
+        Random random = new Random(0);
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            double millis = 12.0 + 2.0 * random.nextGaussian();
+            if (random.nextInt(20) == 0) {
+                millis += 16.0 * random.nextInt(4);
+            }
+            mFrameNanos[i] = (long) (Math.max(1.0, millis) * 1e6);
+        }
+        mHistogram = new FrameTimeHistogram(DEADLINE_NANOS);
+        for (long frameNanos : mFrameNanos) {
+            mHistogram.record(frameNanos);
+        }
+    }
+
+    @Benchmark
+    public long record() {
+        mFrame = (mFrame + 1) % SAMPLE_COUNT;
+        mHistogram.record(mFrameNanos[mFrame]);
+        return mHistogram.getCount();
+    }
+
+    @Benchmark
+    public float percentile() {
+        return mHistogram.getPercentileMillis(99);
+    }
+
+    @Benchmark
+    public String snapshot() {
+        return mHistogram.toJson("benchmark", 0);
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.android.blurperfmormance.benchmark;
+
+import com.example.android.blurperfmormance.GaussianKernel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the kernel weights: the cached lookup every pass does per frame, which must not
+ * allocate, and the build on a cache miss.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GaussianKernelBenchmark {
+    // Radii of an animated sweep from 0 to the maximum of 7 pixels.
+    private static final int RADIUS_COUNT = 64;
+    private static final float MAX_RADIUS = 7.0f;
+
+    @Param({ "7", "15", "31" })
+    public int mTapCount;
+
+    @Param({ "false", "true" })
+    public boolean mLinearSampling;
+
+    private GaussianKernel mKernel;
+    private final float[] mRadii = new float[RADIUS_COUNT];
+    private int mFrame;
+
+    @Setup
+    public void setUp() {
+        mKernel = new GaussianKernel(mTapCount, GaussianKernel.SIGMA_HALF_RADIUS,
+                mLinearSampling);
+        for (int i = 0; i < RADIUS_COUNT; i++) {
+            mRadii[i] = MAX_RADIUS * i / (RADIUS_COUNT - 1);
+            mKernel.get(mRadii[i]);
+        }
+    }
+
+    private float nextRadius() {
+        mFrame = (mFrame + 1) % RADIUS_COUNT;
+        return mRadii[mFrame];
+    }
+
+    @Benchmark
+    public GaussianKernel.Weights cachedLookup() {
+        return mKernel.get(nextRadius());
+    }
+
+    @Benchmark
+    public GaussianKernel.Weights build() {
+        return new GaussianKernel(mTapCount, GaussianKernel.SIGMA_HALF_RADIUS, mLinearSampling)
+                .get(nextRadius());
+    }
+
+    @Benchmark
+    public float[] computeWeights() {
+        return GaussianKernel.computeWeights(mTapCount, nextRadius() / 2.0f);
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.android.blurperfmormance.benchmark;
+
+import com.example.android.blurperfmormance.CpuBlur;
+import com.example.android.blurperfmormance.CpuGaussianBlur;
+import com.example.android.blurperfmormance.PlanarGaussianBlur;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Images per second of the interleaved integer blur against the planar float one, on one
+ * thread over image sizes.  The planar one also runs with C2's auto-vectorization switched
+ * off, which separates what the SIMD code gains from what the layout alone does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlanarBlurBenchmark {
+    private static final float SIGMA = 4.0f;
+
+    @Param({ "interleaved", "planar" })
+    public String mEngine;
+
+    @Param({ "640x360", "1280x720", "1920x1080", "3840x2160" })
+    public String mSize;
+
+    private int mWidth;
+    private int mHeight;
+    private ForkJoinPool mPool;
+    private CpuBlur mBlur;
+    private int[] mSource;
+    private int[] mResult;
+
+    @Setup
+    public void setUp() {
+        String[] size = mSize.split("x");
+        mWidth = Integer.parseInt(size[0]);
+        mHeight = Integer.parseInt(size[1]);
+        Random random = new Random(0);
+        mSource = new int[mWidth * mHeight];
+        for (int i = 0; i < mSource.length; i++) {
+            mSource[i] = random.nextInt();
+        }
+        mResult = new int[mWidth * mHeight];
+        mPool = new ForkJoinPool(1);
+        mBlur = "planar".equals(mEngine) ? new PlanarGaussianBlur(mPool)
+                : new CpuGaussianBlur(mPool);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPool.shutdown();
+    }
+
+    @Benchmark
+    public int[] blur() {
+        mBlur.blur(mSource, mResult, mWidth, mHeight, SIGMA);
+        return mResult;
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-XX:-UseSuperWord")
+    public int[] blurWithoutSuperWord() {
+        mBlur.blur(mSource, mResult, mWidth, mHeight, SIGMA);
+        return mResult;
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.android.blurperfmormance.benchmark;
+
+import com.example.android.blurperfmormance.BlurAnimation;
+import com.example.android.blurperfmormance.FixedStepFrameClock;
+import com.example.android.blurperfmormance.UnthrottledFrameClock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bookkeeping BlurRenderer does every frame besides GL calls: reading the settings the
+ * UI thread changes under a lock, reading the clocks, and computing the animation value.
+ * GL-side costs such as uniform setup are measured on the device by DeviceMicrobenchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderLoopBenchmark {
+    private final Object mLock = new Object();
+    private int mAlgorithmIndex = 3;
+    private int mDownsampleFactor = 2;
+
+    private final UnthrottledFrameClock mUnthrottledClock = new UnthrottledFrameClock();
+    private final FixedStepFrameClock mFixedStepClock =
+            new FixedStepFrameClock(1000000000L / 60);
+    private final BlurAnimation mAnimation = new BlurAnimation(3000);
+
+    @Benchmark
+    public int readSettings() {
+        synchronized (mLock) {
+            return mAlgorithmIndex * 16 + mDownsampleFactor;
+        }
+    }
+
+    @Benchmark
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Benchmark
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Benchmark
+    public long unthrottledFrame() {
+        return mUnthrottledClock.awaitFrame();
+    }
+
+    /**
+     * The animation value BlurRenderer draws with, from a fixed-step clock.
+     */
+    @Benchmark
+    public float interpolationValue() {
+        return mAnimation.getValue(mFixedStepClock.awaitFrame());
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.android.blurperfmormance;
+
+/**
+ * The animation of the blur radius: a value going from 0 up to 1 over the duration and back
+ * down to 0 over the next, computed from the frame times of a {@link FrameClock}.
+ * <p>
+ * The first frame time starts the animation, and it restarts from the frame that reaches
+ * twice the duration, which then shows 0.  Elapsed time is truncated to milliseconds.  Not
+ * thread safe; the render thread owns it.
+ */
+public final class BlurAnimation {
+    private final long mDurationMillis;
+    private long mStart = -1;                   // frame time, in ns, or -1 before the first
+
+    /**
+     * @param durationMillis Time from 0 to 1, and from 1 back to 0.
+     */
+    public BlurAnimation(long durationMillis) {
+        if (durationMillis <= 0) {
+            throw new IllegalArgumentException("duration out of range: " + durationMillis);
+        }
+        mDurationMillis = durationMillis;
+    }
+
+    /**
+     * Starts over from the next frame time.
+     */
+    public void reset() {
+        mStart = -1;
+    }
+
+    /**
+     * Value at the given frame time, in ns, between 0 and 1.
+     */
+    public float getValue(long frameTime) {
+        if (mStart < 0) {
+            mStart = frameTime;
+        }
+        float value = (float) ((frameTime - mStart) / 1000000L) / (float) mDurationMillis;
+        if (value > 1.0f && value < 2.0f) {
+            value = 2.0f - value;
+        } else if (value >= 2.0f) {
+            mStart = frameTime;
+            value = 0.0f;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.android.blurperfmormance;
+
+/**
+ * A Gaussian blur of packed ARGB images on the CPU.
+ */
+public interface CpuBlur {
+    /**
+     * Blurs src into dst, which may be the same array.  Edges are clamped.
+     *
+     * @param sigma Standard deviation of the Gaussian in pixels; 0 copies the image.
+     */
+    void blur(int[] src, int[] dst, int width, int height, float sigma);
+}
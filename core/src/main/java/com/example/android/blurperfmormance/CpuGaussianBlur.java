@@ -0,0 +1,114 @@
+package com.example.android.blurperfmormance;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Separable Gaussian blur of packed ARGB images on the CPU, split into strips of rows that
+ * run on a {@link ForkJoinPool}.  The reference the GPU algorithms are compared against,
+ * and a fallback where no suitable GL context is available.
+ * <p>
+ * Each pass is a horizontal convolution with the discrete {@link GaussianKernel} weights,
+ * scheduled and transposed as described in {@link SeparableCpuBlur}.  Edges are clamped.
+ * Weights are 16-bit fixed point and summed per channel in ints, so the result is exact to
+ * rounding.  An instance blurs one image at a time.
+ */
+public final class CpuGaussianBlur extends SeparableCpuBlur {
+    private static final int WEIGHT_BITS = 16;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+
+    private int[] mWeights = new int[0];
+    private int mRadius;
+    private float mSigma = -1.0f;
+
+    /**
+     * Convolves rows through a copy with the edge pixels repeated radius times on either
+     * side.
+     */
+    private final class Convolution extends RowFilter {
+        int[] mPadded = new int[0];
+
+        @Override
+        void filter(int[] in, int offset, int length, int[] out, int outOffset) {
+            int radius = mRadius;
+            int[] weights = mWeights;
+            if (mPadded.length < length + 2 * radius) {
+                mPadded = new int[length + 2 * radius];
+            }
+            int[] padded = mPadded;
+            int first = in[offset];
+            int last = in[offset + length - 1];
+            for (int i = 0; i < radius; i++) {
+                padded[i] = first;
+                padded[radius + length + i] = last;
+            }
+            System.arraycopy(in, offset, padded, radius, length);
+
+            for (int x = 0; x < length; x++) {
+                int center = x + radius;
+                int pixel = padded[center];
+                int weight = weights[0];
+                int a = (pixel >>> 24) * weight;
+                int r = ((pixel >> 16) & 0xff) * weight;
+                int g = ((pixel >> 8) & 0xff) * weight;
+                int b = (pixel & 0xff) * weight;
+                for (int k = 1; k <= radius; k++) {
+                    int left = padded[center - k];
+                    int right = padded[center + k];
+                    weight = weights[k];
+                    a += ((left >>> 24) + (right >>> 24)) * weight;
+                    r += (((left >> 16) & 0xff) + ((right >> 16) & 0xff)) * weight;
+                    g += (((left >> 8) & 0xff) + ((right >> 8) & 0xff)) * weight;
+                    b += ((left & 0xff) + (right & 0xff)) * weight;
+                }
+                int round = WEIGHT_ONE / 2;
+                out[outOffset + x] = ((a + round) >>> WEIGHT_BITS) << 24
+                        | ((r + round) >>> WEIGHT_BITS) << 16
+                        | ((g + round) >>> WEIGHT_BITS) << 8
+                        | ((b + round) >>> WEIGHT_BITS);
+            }
+        }
+    }
+
+    /**
+     * Blurs on a pool of its own with a thread per processor.
+     */
+    public CpuGaussianBlur() {
+        this(new ForkJoinPool());
+    }
+
+    public CpuGaussianBlur(ForkJoinPool pool) {
+        super(pool);
+    }
+
+    /**
+     * Radius of the kernel, in pixels on each side, of the last blur.
+     */
+    public int getRadius() {
+        return mRadius;
+    }
+
+    @Override
+    RowFilter createRowFilter() {
+        return new Convolution();
+    }
+
+    @Override
+    void prepare(float sigma) {
+        if (sigma == mSigma) {
+            return;
+        }
+        int radius = GaussianKernel.getSignificantTapCount(Integer.MAX_VALUE, sigma);
+        float[] weights = GaussianKernel.computeWeights(radius, sigma);
+        if (mWeights.length != radius + 1) {
+            mWeights = new int[radius + 1];
+        }
+        int sum = 0;
+        for (int i = 0; i <= radius; i++) {
+            mWeights[i] = Math.round(weights[i] * WEIGHT_ONE);
+            sum += i == 0 ? mWeights[i] : 2 * mWeights[i];
+        }
+        mWeights[0] += WEIGHT_ONE - sum;       // rounding error goes to the center
+        mRadius = radius;
+        mSigma = sigma;
+    }
+}
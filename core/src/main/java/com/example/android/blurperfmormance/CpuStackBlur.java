@@ -0,0 +1,177 @@
+package com.example.android.blurperfmormance;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Stack blur of packed ARGB images on the CPU, in integer arithmetic only: a fast
+ * approximation of the Gaussian for devices that can't blur on the GPU.
+ * <p>
+ * Each pass is a triangle filter of radius r, computed by Mario Klingemann's stack blur:
+ * the last 2r + 1 pixels are kept in a ring buffer and three running sums per channel (of
+ * the weighted window, of the pixels entering it and of those leaving it) are updated with
+ * a few additions per pixel, so the cost doesn't depend on the radius.  The weighted sum is
+ * divided by (r + 1)^2 with a multiplication and a shift from a table.  The radius is the
+ * one whose triangle has the variance of the requested Gaussian, r(r + 2) / 6 = sigma^2.
+ * <p>
+ * Rows and columns are filtered in strips on a {@link ForkJoinPool} as described in
+ * {@link SeparableCpuBlur}.  Edges are clamped.  An instance blurs one image at a time.
+ */
+public final class CpuStackBlur extends SeparableCpuBlur {
+    /** Largest radius, reached from a sigma of about 104. */
+    public static final int MAX_RADIUS = 254;
+
+    // sum * DIVIDE_MULTIPLIERS[r] >>> DIVIDE_SHIFT is sum / (r + 1)^2, rounded, for every
+    // sum up to 255 (r + 1)^2 without overflowing 32 unsigned bits.
+    private static final int DIVIDE_SHIFT = 23;
+    private static final int DIVIDE_ROUND = 1 << (DIVIDE_SHIFT - 1);
+    private static final int[] DIVIDE_MULTIPLIERS = new int[MAX_RADIUS + 1];
+
+    static {
+        for (int radius = 1; radius <= MAX_RADIUS; radius++) {
+            long divisor = (long) (radius + 1) * (radius + 1);
+            DIVIDE_MULTIPLIERS[radius] =
+                    (int) (((1L << DIVIDE_SHIFT) + divisor / 2) / divisor);
+        }
+    }
+
+    private int mRadius;
+
+    /**
+     * Filters rows through a ring buffer of the pixels under the window.
+     */
+    private final class Stack extends RowFilter {
+        int[] mStack = new int[0];
+
+        @Override
+        void filter(int[] in, int offset, int length, int[] out, int outOffset) {
+            int radius = mRadius;
+            int size = 2 * radius + 1;
+            if (mStack.length < size) {
+                mStack = new int[size];
+            }
+            int[] stack = mStack;
+            int multiplier = DIVIDE_MULTIPLIERS[radius];
+            int last = offset + length - 1;
+
+            int sumA = 0, sumR = 0, sumG = 0, sumB = 0;
+            int inA = 0, inR = 0, inG = 0, inB = 0;
+            int outA = 0, outR = 0, outG = 0, outB = 0;
+
+            // Window around x = 0: the first pixel repeated on the left, weights 1..r + 1,
+            // then the pixels to the right with weights r..1.
+            int pixel = in[offset];
+            for (int i = 0; i <= radius; i++) {
+                stack[i] = pixel;
+                int weight = i + 1;
+                sumA += (pixel >>> 24) * weight;
+                sumR += ((pixel >> 16) & 0xff) * weight;
+                sumG += ((pixel >> 8) & 0xff) * weight;
+                sumB += (pixel & 0xff) * weight;
+                outA += pixel >>> 24;
+                outR += (pixel >> 16) & 0xff;
+                outG += (pixel >> 8) & 0xff;
+                outB += pixel & 0xff;
+            }
+            for (int i = 1; i <= radius; i++) {
+                pixel = in[Math.min(offset + i, last)];
+                stack[radius + i] = pixel;
+                int weight = radius + 1 - i;
+                sumA += (pixel >>> 24) * weight;
+                sumR += ((pixel >> 16) & 0xff) * weight;
+                sumG += ((pixel >> 8) & 0xff) * weight;
+                sumB += (pixel & 0xff) * weight;
+                inA += pixel >>> 24;
+                inR += (pixel >> 16) & 0xff;
+                inG += (pixel >> 8) & 0xff;
+                inB += pixel & 0xff;
+            }
+
+            int center = radius;
+            for (int x = 0; x < length; x++) {
+                out[outOffset + x] = (sumA * multiplier + DIVIDE_ROUND) >>> DIVIDE_SHIFT << 24
+                        | (sumR * multiplier + DIVIDE_ROUND) >>> DIVIDE_SHIFT << 16
+                        | (sumG * multiplier + DIVIDE_ROUND) >>> DIVIDE_SHIFT << 8
+                        | (sumB * multiplier + DIVIDE_ROUND) >>> DIVIDE_SHIFT;
+
+                sumA -= outA;
+                sumR -= outR;
+                sumG -= outG;
+                sumB -= outB;
+
+                // The leftmost pixel leaves, its slot takes the one entering on the right.
+                int leftmost = center + radius + 1;
+                if (leftmost >= size) {
+                    leftmost -= size;
+                }
+                pixel = stack[leftmost];
+                outA -= pixel >>> 24;
+                outR -= (pixel >> 16) & 0xff;
+                outG -= (pixel >> 8) & 0xff;
+                outB -= pixel & 0xff;
+
+                pixel = in[Math.min(offset + x + radius + 1, last)];
+                stack[leftmost] = pixel;
+                inA += pixel >>> 24;
+                inR += (pixel >> 16) & 0xff;
+                inG += (pixel >> 8) & 0xff;
+                inB += pixel & 0xff;
+
+                sumA += inA;
+                sumR += inR;
+                sumG += inG;
+                sumB += inB;
+
+                // The pixel right of the center moves from the rising half to the falling.
+                if (++center == size) {
+                    center = 0;
+                }
+                pixel = stack[center];
+                outA += pixel >>> 24;
+                outR += (pixel >> 16) & 0xff;
+                outG += (pixel >> 8) & 0xff;
+                outB += pixel & 0xff;
+                inA -= pixel >>> 24;
+                inR -= (pixel >> 16) & 0xff;
+                inG -= (pixel >> 8) & 0xff;
+                inB -= pixel & 0xff;
+            }
+        }
+    }
+
+    /**
+     * Blurs on a pool of its own with a thread per processor.
+     */
+    public CpuStackBlur() {
+        this(new ForkJoinPool());
+    }
+
+    public CpuStackBlur(ForkJoinPool pool) {
+        super(pool);
+    }
+
+    /**
+     * Returns the stack blur radius for a Gaussian of the given sigma, 1 to
+     * {@link #MAX_RADIUS}.
+     */
+    public static int getRadius(float sigma) {
+        int radius = Math.round((float) Math.sqrt(1.0 + 6.0 * sigma * sigma) - 1.0f);
+        return Math.max(1, Math.min(MAX_RADIUS, radius));
+    }
+
+    /**
+     * Radius of the last blur.
+     */
+    public int getRadius() {
+        return mRadius;
+    }
+
+    @Override
+    RowFilter createRowFilter() {
+        return new Stack();
+    }
+
+    @Override
+    void prepare(float sigma) {
+        mRadius = getRadius(sigma);
+    }
+}
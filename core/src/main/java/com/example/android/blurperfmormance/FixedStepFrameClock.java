@@ -0,0 +1,33 @@
+package com.example.android.blurperfmormance;
+
+/**
+ * Advances by the same period every frame without waiting, so the animation, and with it
+ * every radius drawn, is the same from run to run whatever the frames cost.  The times
+ * count from 0 rather than following the real clock.
+ */
+public final class FixedStepFrameClock implements FrameClock {
+    private final long mPeriodNanos;
+    private long mFrameTime = -1;
+
+    public FixedStepFrameClock(long periodNanos) {
+        if (periodNanos <= 0) {
+            throw new IllegalArgumentException("period out of range: " + periodNanos);
+        }
+        mPeriodNanos = periodNanos;
+    }
+
+    @Override
+    public long awaitFrame() {
+        mFrameTime = mFrameTime < 0 ? 0 : mFrameTime + mPeriodNanos;
+        return mFrameTime;
+    }
+
+    @Override
+    public long getPresentationTime() {
+        return 0;
+    }
+
+    @Override
+    public void release() {
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.android.blurperfmormance;
+
+/**
+ * Decides when the render loop draws its next frame and which time the frame shows.
+ * <p>
+ * Times are in nanoseconds on the {@link System#nanoTime()} time base, except for clocks
+ * made for tests, which may count from any origin; the renderer only ever subtracts them.
+ * Frame times only move forward.
+ */
+public interface FrameClock {
+    /**
+     * Waits until the next frame should be drawn and returns the time its animation is
+     * evaluated at.
+     */
+    long awaitFrame();
+
+    /**
+     * Time at which the frame returned by the last {@link #awaitFrame()} should appear on
+     * the display, passed to eglPresentationTimeANDROID(), or 0 to show it as soon as
+     * possible.
+     */
+    long getPresentationTime();
+
+    /**
+     * Stops any thread or callbacks the clock runs.
+     */
+    void release();
+}
@@ -0,0 +1,172 @@
+package com.example.android.blurperfmormance;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Distribution of frame times in fixed log-linear buckets, with counts of frames that
+ * missed their display deadline.
+ * <p>
+ * Times are kept in microseconds.  Below {@link #SUB_BUCKET_COUNT} us every microsecond has
+ * a bucket; above, every power of two is split into SUB_BUCKET_COUNT equal buckets, so a
+ * percentile is off by at most 1 / SUB_BUCKET_COUNT of its value, up to about 16 seconds.
+ * {@link #record(long)} only increments counters, so frames can be recorded without
+ * allocating.  Not thread safe.
+ */
+public final class FrameTimeHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    public static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    // Times of 2^MAX_EXPONENT us and more go in the last bucket.
+    private static final int MAX_EXPONENT = 24;
+    private static final int BUCKET_COUNT =
+            (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final long mDeadlineNanos;
+    private final int[] mCounts = new int[BUCKET_COUNT];
+    private long mCount;
+    private long mTotalMicros;
+    private long mMaxMicros;
+    private long mMissedDeadlines;
+    private long mMissedTwoDeadlines;
+
+    /**
+     * @param deadlineNanos Time a frame has, usually the display's refresh period.  Frames
+     *                      taking longer are counted as missed.
+     */
+    public FrameTimeHistogram(long deadlineNanos) {
+        mDeadlineNanos = deadlineNanos;
+    }
+
+    static int getBucket(long micros) {
+        if (micros < SUB_BUCKET_COUNT) {
+            return (int) Math.max(0, micros);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (micros >> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKET_COUNT;
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * Smallest time, in microseconds, past the bucket's range.
+     */
+    static long getBucketLimit(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket + 1;
+        }
+        int exponent = bucket / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return (subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    public void record(long frameNanos) {
+        long micros = frameNanos / 1000;
+        mCounts[getBucket(micros)]++;
+        mCount++;
+        mTotalMicros += micros;
+        mMaxMicros = Math.max(mMaxMicros, micros);
+        if (frameNanos > mDeadlineNanos) {
+            mMissedDeadlines++;
+            if (frameNanos > 2 * mDeadlineNanos) {
+                mMissedTwoDeadlines++;
+            }
+        }
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * Frames slower than the deadline, i.e. that were shown at least one refresh late.
+     */
+    public long getMissedDeadlines() {
+        return mMissedDeadlines;
+    }
+
+    /**
+     * Frames slower than twice the deadline.
+     */
+    public long getMissedTwoDeadlines() {
+        return mMissedTwoDeadlines;
+    }
+
+    /**
+     * Upper bound of the time percentile percent of the frames took at most, in
+     * milliseconds, or 0 if none were recorded.
+     */
+    public float getPercentileMillis(double percent) {
+        if (mCount == 0) {
+            return 0.0f;
+        }
+        long rank = Math.max(1, (long) Math.ceil(mCount * percent / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.min(getBucketLimit(i), mMaxMicros) / 1000.0f;
+            }
+        }
+        return mMaxMicros / 1000.0f;
+    }
+
+    public float getMeanMillis() {
+        return mCount == 0 ? 0.0f : mTotalMicros / 1000.0f / mCount;
+    }
+
+    public float getMaxMillis() {
+        return mMaxMicros / 1000.0f;
+    }
+
+    public void reset() {
+        Arrays.fill(mCounts, 0);
+        mCount = 0;
+        mTotalMicros = 0;
+        mMaxMicros = 0;
+        mMissedDeadlines = 0;
+        mMissedTwoDeadlines = 0;
+    }
+
+    /**
+     * One-line summary for the log.
+     */
+    public String toSummary() {
+        return String.format(Locale.US,
+                "frames=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms"
+                        + " missed=%d (>2x %d)",
+                mCount, getMeanMillis(), getPercentileMillis(50), getPercentileMillis(90),
+                getPercentileMillis(99), getMaxMillis(), mMissedDeadlines, mMissedTwoDeadlines);
+    }
+
+    /**
+     * The statistics as a single line of JSON, with the non-empty buckets as
+     * [limit in us, count] pairs.
+     */
+    public String toJson(String scope, long timestampMillis) {
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"time\":").append(timestampMillis)
+                .append(",\"scope\":\"").append(scope.replace("\\", "\\\\").replace("\"", "\\\""))
+                .append("\",\"deadlineMs\":")
+                .append(String.format(Locale.US, "%.3f", mDeadlineNanos / 1e6))
+                .append(",\"frames\":").append(mCount)
+                .append(String.format(Locale.US,
+                        ",\"meanMs\":%.3f,\"p50Ms\":%.3f,\"p90Ms\":%.3f,\"p99Ms\":%.3f,\"maxMs\":%.3f",
+                        getMeanMillis(), getPercentileMillis(50), getPercentileMillis(90),
+                        getPercentileMillis(99), getMaxMillis()))
+                .append(",\"missed\":").append(mMissedDeadlines)
+                .append(",\"missedTwice\":").append(mMissedTwoDeadlines)
+                .append(",\"buckets\":[");
+        boolean first = true;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (mCounts[i] != 0) {
+                json.append(first ? "" : ",").append('[').append(getBucketLimit(i))
+                        .append(',').append(mCounts[i]).append(']');
+                first = false;
+            }
+        }
+        return json.append("]}").toString();
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.android.blurperfmormance;
+
+import java.util.Arrays;
+
+/**
+ * CPU-side Gaussian kernel library.
+ * <p>
+ * Builds the normalized one-sided weights of a separable Gaussian for a fixed number of
+ * taps and, for the linear sampling algorithms, merges pairs of neighbouring taps into a
+ * single bilinear fetch.  Taps whose weight falls below 1/255 of the center are dropped,
+ * so small radii need fewer texture fetches.  Results are cached per quantized radius, so
+ * the per-frame cost is an array lookup and the shaders receive the weights as uniform
+ * arrays instead of recomputing them for every vertex.
+ */
+public final class GaussianKernel {
+
+    /**
+     * Maps the animated blur radius to the sigma of the Gaussian, expressed in taps.
+     */
+    public interface SigmaPolicy {
+        float getSigma(float radius, int tapCount);
+    }
+
+    public static final SigmaPolicy SIGMA_HALF_RADIUS = new SigmaPolicy() {
+        @Override
+        public float getSigma(float radius, int tapCount) {
+            return radius / 2.0f;
+        }
+    };
+
+    public static final SigmaPolicy SIGMA_THIRD_RADIUS = new SigmaPolicy() {
+        @Override
+        public float getSigma(float radius, int tapCount) {
+            return radius / 3.0f;
+        }
+    };
+
+    public static final SigmaPolicy SIGMA_RADIUS = new SigmaPolicy() {
+        @Override
+        public float getSigma(float radius, int tapCount) {
+            return radius;
+        }
+    };
+
+    /**
+     * Sigma chosen so that the outermost tap falls to roughly 1/255.  Does not depend on the
+     * radius, which only scales the distance between taps.
+     */
+    public static final SigmaPolicy SIGMA_FIT_TAP_COUNT = new SigmaPolicy() {
+        @Override
+        public float getSigma(float radius, int tapCount) {
+            return (float) ((tapCount + 1.0) / CUTOFF_SIGMAS);
+        }
+    };
+
+    /**
+     * Resolution of the per-radius cache.  The animated radius is rounded to this many
+     * steps per pixel before the weights are looked up.
+     */
+    public static final int RADIUS_STEPS_PER_PIXEL = 16;
+
+    // Taps further than this many sigmas from the center weigh less than 1/255 of it.
+    private static final double CUTOFF_SIGMAS = Math.sqrt(2.0 * Math.log(255.0));
+
+    /**
+     * Uniform-ready kernel for one radius.  Entry 0 is the center tap, entries 1..mSize-1
+     * are applied symmetrically on both sides at mOffsets[i] sample steps.
+     */
+    public static final class Weights {
+        public final float[] mWeights;
+        public final float[] mOffsets;
+        public final int mSize;
+        public final int mTapCount;
+
+        Weights(float[] weights, float[] offsets, int tapCount) {
+            mWeights = weights;
+            mOffsets = offsets;
+            mSize = weights.length;
+            mTapCount = tapCount;
+        }
+    }
+
+    private final int mTapCount;
+    private final SigmaPolicy mSigmaPolicy;
+    private final boolean mLinearSampling;
+    // Replaced, never resized in place, so a reader indexes only the array it checked.
+    private volatile Weights[] mCache = new Weights[0];
+
+    /**
+     * @param tapCount Number of taps on each side of the center.
+     * @param sigmaPolicy Maps the radius to the Gaussian sigma.
+     * @param linearSampling Merge neighbouring taps so they can be fetched with one
+     *                       bilinear sample.
+     */
+    public GaussianKernel(int tapCount, SigmaPolicy sigmaPolicy, boolean linearSampling) {
+        if (tapCount < 0) {
+            throw new IllegalArgumentException("tapCount must be >= 0: " + tapCount);
+        }
+        mTapCount = tapCount;
+        mSigmaPolicy = sigmaPolicy;
+        mLinearSampling = linearSampling;
+    }
+
+    /**
+     * Returns the maximum number of taps on each side of the center.
+     */
+    public int getTapCount() {
+        return mTapCount;
+    }
+
+    /**
+     * Returns the number of taps on each side of the center that contribute at the given
+     * radius.  This is the tap count of {@link #get(float)} for the same radius.
+     */
+    public int getTapCount(float radius) {
+        return get(radius).mTapCount;
+    }
+
+    /**
+     * Returns the kernel for the given radius, computing it on first use.
+     * <p>
+     * Algorithms may be constructed on a background thread while another one draws, so the
+     * cache is read once into a local, which is the only array indexed and grown, and a
+     * grown array is published with a volatile write.  Weights are immutable, so an entry
+     * written to an array another thread has just replaced is lost and rebuilt, nothing
+     * worse.
+     */
+    public Weights get(float radius) {
+        int step = Math.max(0, Math.round(radius * RADIUS_STEPS_PER_PIXEL));
+        Weights[] cache = mCache;
+        if (step >= cache.length) {
+            cache = Arrays.copyOf(cache, Math.max(step + 1, cache.length * 2));
+            mCache = cache;
+        }
+        Weights weights = cache[step];
+        if (weights == null) {
+            weights = build((float) step / RADIUS_STEPS_PER_PIXEL);
+            cache[step] = weights;
+        }
+        return weights;
+    }
+
+    private Weights build(float radius) {
+        float sigma = mSigmaPolicy.getSigma(radius, mTapCount);
+        int tapCount = getSignificantTapCount(mTapCount, sigma);
+        float[] discrete = computeWeights(tapCount, sigma);
+        if (!mLinearSampling) {
+            float[] offsets = new float[discrete.length];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = i;
+            }
+            return new Weights(discrete, offsets, tapCount);
+        }
+
+        int size = getMergedTapCount(tapCount) + 1;
+        float[] weights = new float[size];
+        float[] offsets = new float[size];
+        mergeLinear(discrete, weights, offsets);
+        return new Weights(weights, offsets, tapCount);
+    }
+
+    /**
+     * Returns how many taps, at most maxTapCount, lie within the 1/255 cutoff of a Gaussian
+     * with the given sigma.
+     */
+    public static int getSignificantTapCount(int maxTapCount, float sigma) {
+        if (sigma <= 0.0f) {
+            return 0;
+        }
+        return Math.min(maxTapCount, (int) Math.ceil(sigma * CUTOFF_SIGMAS));
+    }
+
+    /**
+     * Returns the number of bilinear fetches per side needed for tapCount discrete taps.
+     */
+    public static int getMergedTapCount(int tapCount) {
+        return (tapCount + 1) / 2;
+    }
+
+    /**
+     * Computes normalized one-sided Gaussian weights for taps 0..tapCount.  A non-positive
+     * sigma yields the identity kernel.
+     */
+    public static float[] computeWeights(int tapCount, float sigma) {
+        float[] weights = new float[tapCount + 1];
+        if (sigma <= 0.0f) {
+            weights[0] = 1.0f;
+            return weights;
+        }
+
+        double twoSigmaSquared = 2.0 * sigma * sigma;
+        double sum = 0.0;
+        double[] raw = new double[tapCount + 1];
+        for (int i = 0; i <= tapCount; i++) {
+            raw[i] = Math.exp(-(i * i) / twoSigmaSquared);
+            sum += (i == 0) ? raw[i] : 2.0 * raw[i];
+        }
+        for (int i = 0; i <= tapCount; i++) {
+            weights[i] = (float) (raw[i] / sum);
+        }
+        return weights;
+    }
+
+    /**
+     * Merges taps (2i - 1, 2i) into one fetch placed at their weighted centroid, so a
+     * bilinear sample returns their weighted sum.  A missing last partner has weight 0.
+     */
+    public static void mergeLinear(float[] discrete, float[] weights, float[] offsets) {
+        weights[0] = discrete[0];
+        offsets[0] = 0.0f;
+        for (int i = 1; i < weights.length; i++) {
+            int first = 2 * i - 1;
+            int second = 2 * i;
+            float firstWeight = first < discrete.length ? discrete[first] : 0.0f;
+            float secondWeight = second < discrete.length ? discrete[second] : 0.0f;
+            float weight = firstWeight + secondWeight;
+            weights[i] = weight;
+            offsets[i] = weight > 0.0f
+                    ? (first * firstWeight + second * secondWeight) / weight
+                    : first;
+        }
+    }
+}
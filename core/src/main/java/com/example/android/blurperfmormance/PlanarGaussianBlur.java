@@ -0,0 +1,143 @@
+package com.example.android.blurperfmormance;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The Gaussian of {@link CpuGaussianBlur}, computed on planes of floats so the JIT can
+ * convolve many pixels per instruction, for batch work on desktop and server JVMs.
+ * <p>
+ * Each row is split into one float plane per channel, padded with the edge pixels, and
+ * every pair of taps is one pass over the whole plane, adding weight * (plane[x - k] +
+ * plane[x + k]) to sums[x].  Loops of that shape, over contiguous arrays without dependencies
+ * between iterations, are what HotSpot's C2 compiles to SIMD code, 8 floats per
+ * instruction with AVX2 and 16 with AVX-512, followed by a scalar loop for the remainder.
+ * The interleaved integer loop of {@link CpuGaussianBlur} isn't vectorized.  ART compiles
+ * the same code to scalar instructions, where this engine is merely correct.
+ * <p>
+ * Results agree with {@link CpuGaussianBlur} to within rounding.  Rows and columns run in
+ * strips on a {@link ForkJoinPool} as described in {@link SeparableCpuBlur}.  Edges are
+ * clamped.  An instance blurs one image at a time.
+ */
+public final class PlanarGaussianBlur extends SeparableCpuBlur {
+    private float[] mWeights = new float[0];
+    private int mRadius;
+    private float mSigma = -1.0f;
+
+    /**
+     * Convolves rows through a padded plane and a row of sums per channel.
+     */
+    private final class Planes extends RowFilter {
+        final float[][] mPlanes = new float[4][0];
+        final float[][] mSums = new float[4][0];
+
+        @Override
+        void filter(int[] in, int offset, int length, int[] out, int outOffset) {
+            int radius = mRadius;
+            // A later call may have longer rows but a smaller radius, so each grows on its own.
+            if (mPlanes[0].length < length + 2 * radius) {
+                for (int c = 0; c < 4; c++) {
+                    mPlanes[c] = new float[length + 2 * radius];
+                }
+            }
+            if (mSums[0].length < length) {
+                for (int c = 0; c < 4; c++) {
+                    mSums[c] = new float[length];
+                }
+            }
+            float[] alpha = mPlanes[0];
+            float[] red = mPlanes[1];
+            float[] green = mPlanes[2];
+            float[] blue = mPlanes[3];
+            for (int x = -radius; x < length + radius; x++) {
+                int pixel = in[offset + Math.max(0, Math.min(length - 1, x))];
+                alpha[radius + x] = pixel >>> 24;
+                red[radius + x] = (pixel >> 16) & 0xff;
+                green[radius + x] = (pixel >> 8) & 0xff;
+                blue[radius + x] = pixel & 0xff;
+            }
+
+            for (int c = 0; c < 4; c++) {
+                convolve(mPlanes[c], mSums[c], length);
+            }
+
+            float[] sumsA = mSums[0];
+            float[] sumsR = mSums[1];
+            float[] sumsG = mSums[2];
+            float[] sumsB = mSums[3];
+            for (int x = 0; x < length; x++) {
+                out[outOffset + x] = toByte(sumsA[x]) << 24
+                        | toByte(sumsR[x]) << 16
+                        | toByte(sumsG[x]) << 8
+                        | toByte(sumsB[x]);
+            }
+        }
+
+        private void convolve(float[] plane, float[] sums, int length) {
+            int radius = mRadius;
+            float[] weights = mWeights;
+            float center = weights[0];
+            for (int x = 0; x < length; x++) {
+                sums[x] = center * plane[radius + x];
+            }
+            // Two taps per sweep, so the sums are loaded and stored half as often.
+            int k = 1;
+            for (; k < radius; k += 2) {
+                float weight0 = weights[k];
+                float weight1 = weights[k + 1];
+                int left = radius - k;
+                int right = radius + k;
+                for (int x = 0; x < length; x++) {
+                    sums[x] += weight0 * (plane[left + x] + plane[right + x])
+                            + weight1 * (plane[left - 1 + x] + plane[right + 1 + x]);
+                }
+            }
+            if (k == radius) {
+                float weight = weights[k];
+                int left = radius - k;
+                int right = radius + k;
+                for (int x = 0; x < length; x++) {
+                    sums[x] += weight * (plane[left + x] + plane[right + x]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Blurs on a pool of its own with a thread per processor.
+     */
+    public PlanarGaussianBlur() {
+        this(new ForkJoinPool());
+    }
+
+    public PlanarGaussianBlur(ForkJoinPool pool) {
+        super(pool);
+    }
+
+    /**
+     * Radius of the kernel, in pixels on each side, of the last blur.
+     */
+    public int getRadius() {
+        return mRadius;
+    }
+
+    @Override
+    RowFilter createRowFilter() {
+        return new Planes();
+    }
+
+    @Override
+    void prepare(float sigma) {
+        if (sigma == mSigma) {
+            return;
+        }
+        int radius = GaussianKernel.getSignificantTapCount(Integer.MAX_VALUE, sigma);
+        mWeights = GaussianKernel.computeWeights(radius, sigma);
+        mRadius = radius;
+        mSigma = sigma;
+    }
+
+    // Weights add up to 1 only to float precision.
+    private static int toByte(float value) {
+        return Math.min(255, (int) (value + 0.5f));
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.android.blurperfmormance;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Base of the CPU blurs that filter along rows and then along columns, in strips of rows
+ * that run on a {@link ForkJoinPool}.
+ * <p>
+ * Both passes filter rows: the first reads the image's rows and writes its result
+ * transposed, so the second reads the columns as rows and transposes them back.  Neither
+ * pass walks memory with a stride the height of the image, except for the transposed
+ * writes, which go out {@link #BLOCK_ROWS} rows at a time so each column write fills a
+ * cache line.  The image between the passes is kept at 8 bits per channel.
+ * <p>
+ * The transposed image, the block of rows and the strip tasks, each with the scratch
+ * arrays of its {@link RowFilter}, are kept between calls, so blurring an image of the same
+ * size again doesn't allocate.  An instance blurs one image at a time.
+ */
+abstract class SeparableCpuBlur implements CpuBlur {
+    /** Rows filtered before their results are written out as columns. */
+    static final int BLOCK_ROWS = 16;
+
+    // Strips per worker, so a thread that finishes early can take another one.
+    private static final int STRIPS_PER_THREAD = 4;
+
+    /**
+     * Filters single rows for one strip, with scratch arrays of its own.
+     */
+    abstract static class RowFilter {
+        /**
+         * Filters in[offset..offset + length) into out[outOffset..].
+         */
+        abstract void filter(int[] in, int offset, int length, int[] out, int outOffset);
+    }
+
+    private final ForkJoinPool mPool;
+    private final Strip[] mStrips;
+    private final RecursiveAction mPass = new RecursiveAction() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+            ForkJoinTask.invokeAll(mStrips);
+        }
+    };
+
+    private int[] mTransposed = new int[0];
+
+    /**
+     * One strip of rows of a pass.
+     */
+    private final class Strip extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        RowFilter mFilter;
+        int[] mBlock = new int[0];
+        int[] mIn;
+        int[] mOut;
+        int mRowLength;
+        int mRowCount;
+        int mFirstRow;
+        int mEndRow;
+
+        @Override
+        protected void compute() {
+            int rowLength = mRowLength;
+            if (mBlock.length < BLOCK_ROWS * rowLength) {
+                mBlock = new int[BLOCK_ROWS * rowLength];
+            }
+            for (int row = mFirstRow; row < mEndRow; row += BLOCK_ROWS) {
+                int blockRows = Math.min(BLOCK_ROWS, mEndRow - row);
+                for (int i = 0; i < blockRows; i++) {
+                    mFilter.filter(mIn, (row + i) * rowLength, rowLength, mBlock,
+                            i * rowLength);
+                }
+                writeTransposed(mBlock, blockRows, rowLength, mOut, row, mRowCount);
+            }
+        }
+    }
+
+    SeparableCpuBlur(ForkJoinPool pool) {
+        mPool = pool;
+        mStrips = new Strip[Math.max(1, pool.getParallelism() * STRIPS_PER_THREAD)];
+        for (int i = 0; i < mStrips.length; i++) {
+            mStrips[i] = new Strip();
+        }
+    }
+
+    /**
+     * Returns a new filter for a strip.  Called on the first blur.
+     */
+    abstract RowFilter createRowFilter();
+
+    /**
+     * Prepares the filters for sigma, which is positive, before a blur.
+     */
+    abstract void prepare(float sigma);
+
+    @Override
+    public void blur(int[] src, int[] dst, int width, int height, float sigma) {
+        int size = width * height;
+        if (width <= 0 || height <= 0 || src.length < size || dst.length < size) {
+            throw new IllegalArgumentException("bad image size " + width + "x" + height);
+        }
+        if (sigma <= 0.0f) {
+            if (src != dst) {
+                System.arraycopy(src, 0, dst, 0, size);
+            }
+            return;
+        }
+        prepare(sigma);
+        if (mTransposed.length < size) {
+            mTransposed = new int[size];
+        }
+        runPass(src, mTransposed, width, height);
+        runPass(mTransposed, dst, height, width);
+    }
+
+    private void runPass(int[] in, int[] out, int rowLength, int rowCount) {
+        // Strips start on a block boundary, so only the last block of a strip is partial.
+        int blocks = (rowCount + BLOCK_ROWS - 1) / BLOCK_ROWS;
+        int stripCount = Math.min(mStrips.length, blocks);
+        for (int i = 0; i < mStrips.length; i++) {
+            Strip strip = mStrips[i];
+            strip.reinitialize();
+            if (strip.mFilter == null) {
+                strip.mFilter = createRowFilter();
+            }
+            strip.mIn = in;
+            strip.mOut = out;
+            strip.mRowLength = rowLength;
+            strip.mRowCount = rowCount;
+            strip.mFirstRow = Math.min(rowCount, blocks * i / stripCount * BLOCK_ROWS);
+            strip.mEndRow = Math.min(rowCount, blocks * (i + 1) / stripCount * BLOCK_ROWS);
+            if (i >= stripCount) {
+                strip.mFirstRow = strip.mEndRow = rowCount;
+            }
+        }
+        mPass.reinitialize();
+        mPool.invoke(mPass);
+    }
+
+    /**
+     * Writes rows [row, row + blockRows) of the pass result, held in block, as columns of
+     * out, whose rows are rowCount long.
+     */
+    private static void writeTransposed(int[] block, int blockRows, int rowLength, int[] out,
+            int row, int rowCount) {
+        for (int x = 0; x < rowLength; x++) {
+            int outOffset = x * rowCount + row;
+            for (int i = 0; i < blockRows; i++) {
+                out[outOffset + i] = block[i * rowLength + x];
+            }
+        }
+    }
+}
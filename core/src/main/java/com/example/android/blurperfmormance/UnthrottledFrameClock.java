@@ -0,0 +1,22 @@
+package com.example.android.blurperfmormance;
+
+/**
+ * Starts every frame right away, so the loop runs as fast as eglSwapBuffers() lets it.
+ * For benchmarking: the frame rate then measures rendering cost rather than the display,
+ * but with an asynchronous buffer queue some of the frames are never shown.
+ */
+public final class UnthrottledFrameClock implements FrameClock {
+    @Override
+    public long awaitFrame() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public long getPresentationTime() {
+        return 0;
+    }
+
+    @Override
+    public void release() {
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.android.blurperfmormance;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class BlurAnimationTest {
+    private static final long STEP_NANOS = 100000000L;     // 100 ms
+    private static final float DELTA = 1e-6f;
+
+    @Test
+    public void goesUpAndBackDown() {
+        FixedStepFrameClock clock = new FixedStepFrameClock(STEP_NANOS);
+        BlurAnimation animation = new BlurAnimation(1000);
+        for (int frame = 0; frame <= 10; frame++) {
+            assertEquals(frame / 10.0f, animation.getValue(clock.awaitFrame()), DELTA);
+        }
+        for (int frame = 11; frame < 20; frame++) {
+            assertEquals(2.0f - frame / 10.0f, animation.getValue(clock.awaitFrame()), DELTA);
+        }
+    }
+
+    @Test
+    public void restartsAtTwiceTheDuration() {
+        FixedStepFrameClock clock = new FixedStepFrameClock(STEP_NANOS);
+        BlurAnimation animation = new BlurAnimation(1000);
+        for (int frame = 0; frame < 20; frame++) {
+            animation.getValue(clock.awaitFrame());
+        }
+        // The frame at 2 s shows 0 and starts the next cycle, which repeats the first.
+        assertEquals(0.0f, animation.getValue(clock.awaitFrame()), DELTA);
+        for (int frame = 1; frame <= 10; frame++) {
+            assertEquals(frame / 10.0f, animation.getValue(clock.awaitFrame()), DELTA);
+        }
+        assertEquals(0.9f, animation.getValue(clock.awaitFrame()), DELTA);
+    }
+
+    @Test
+    public void restartsFromTheFrameThatPassesTwiceTheDuration() {
+        // 300 ms steps skip over 2 s: the cycle restarts at 2.1 s instead.
+        FixedStepFrameClock clock = new FixedStepFrameClock(3 * STEP_NANOS);
+        BlurAnimation animation = new BlurAnimation(1000);
+        float[] expected = { 0.0f, 0.3f, 0.6f, 0.9f, 0.8f, 0.5f, 0.2f, 0.0f, 0.3f };
+        for (float value : expected) {
+            assertEquals(value, animation.getValue(clock.awaitFrame()), DELTA);
+        }
+    }
+
+    @Test
+    public void startsFromTheFirstFrameTime() {
+        BlurAnimation animation = new BlurAnimation(1000);
+        assertEquals(0.0f, animation.getValue(5000000000L), DELTA);
+        assertEquals(0.5f, animation.getValue(5500000000L), DELTA);
+
+        animation.reset();
+        assertEquals(0.0f, animation.getValue(9000000000L), DELTA);
+        assertEquals(0.25f, animation.getValue(9250000000L), DELTA);
+    }
+
+    @Test
+    public void truncatesToMilliseconds() {
+        BlurAnimation animation = new BlurAnimation(1000);
+        animation.getValue(0);
+        assertEquals(0.001f, animation.getValue(1999999L), DELTA);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyDuration() {
+        new BlurAnimation(0);
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.android.blurperfmormance;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameTimeHistogramTest {
+    private static final long REFRESH_NANOS = 1000000000L / 60;
+    private static final float DELTA = 1e-6f;
+
+    @Test
+    public void bucketsOfOneMicrosecondBelowSubBucketCount() {
+        for (int micros = 0; micros < FrameTimeHistogram.SUB_BUCKET_COUNT; micros++) {
+            assertEquals(micros, FrameTimeHistogram.getBucket(micros));
+            assertEquals(micros + 1, FrameTimeHistogram.getBucketLimit(micros));
+        }
+        assertEquals(0, FrameTimeHistogram.getBucket(-5));
+    }
+
+    @Test
+    public void bucketsSplitEachPowerOfTwo() {
+        int count = FrameTimeHistogram.SUB_BUCKET_COUNT;
+        // 16..31 us still one microsecond per bucket, 32..63 two, 64..127 four.
+        assertEquals(count, FrameTimeHistogram.getBucket(count));
+        assertEquals(2 * count, FrameTimeHistogram.getBucket(2 * count));
+        assertEquals(2 * count, FrameTimeHistogram.getBucket(2 * count + 1));
+        assertEquals(2 * count + 1, FrameTimeHistogram.getBucket(2 * count + 2));
+        assertEquals(2 * count + 2, FrameTimeHistogram.getBucketLimit(2 * count));
+        assertEquals(3 * count, FrameTimeHistogram.getBucket(4 * count));
+        assertEquals(4 * count + 4, FrameTimeHistogram.getBucketLimit(3 * count));
+    }
+
+    @Test
+    public void bucketLimitsAreContiguous() {
+        int bucket = 0;
+        for (long micros = 0; micros < 1 << 20; micros++) {
+            int next = FrameTimeHistogram.getBucket(micros);
+            if (next != bucket) {
+                assertEquals(bucket + 1, next);
+                assertEquals(micros, FrameTimeHistogram.getBucketLimit(bucket));
+                bucket = next;
+            }
+            assertTrue(micros < FrameTimeHistogram.getBucketLimit(bucket));
+        }
+    }
+
+    @Test
+    public void longTimesShareTheLastBucket() {
+        // The last sub-bucket below 2^24 us, [2^24 - 2^19, 2^24), is open-ended.
+        int last = FrameTimeHistogram.getBucket(1L << 24);
+        assertEquals(last, FrameTimeHistogram.getBucket((1L << 24) - (1L << 19)));
+        assertEquals(last - 1, FrameTimeHistogram.getBucket((1L << 24) - (1L << 19) - 1));
+        assertEquals(last, FrameTimeHistogram.getBucket(Long.MAX_VALUE / 1000));
+    }
+
+    @Test
+    public void percentilesAreBucketLimitsCappedAtTheMax() {
+        FrameTimeHistogram histogram = new FrameTimeHistogram(REFRESH_NANOS);
+        assertEquals(0.0f, histogram.getPercentileMillis(50), DELTA);
+
+        for (int i = 0; i < 99; i++) {
+            histogram.record(10000000L);
+        }
+        histogram.record(50000000L);
+        // 10000 us falls in [9728, 10240), 50000 us in [49152, 51200).
+        assertEquals(10.24f, histogram.getPercentileMillis(0), DELTA);
+        assertEquals(10.24f, histogram.getPercentileMillis(50), DELTA);
+        assertEquals(10.24f, histogram.getPercentileMillis(99), DELTA);
+        assertEquals(50.0f, histogram.getPercentileMillis(99.5), DELTA);
+        assertEquals(50.0f, histogram.getPercentileMillis(100), DELTA);
+        assertEquals(10.4f, histogram.getMeanMillis(), 1e-4f);
+        assertEquals(50.0f, histogram.getMaxMillis(), DELTA);
+        assertEquals(1, histogram.getMissedDeadlines());
+        assertEquals(1, histogram.getMissedTwoDeadlines());
+    }
+
+    @Test
+    public void percentilesAreWithinOneSubBucket() {
+        for (long micros = 1; micros < 1 << 24; micros = micros * 3 / 2 + 1) {
+            FrameTimeHistogram histogram = new FrameTimeHistogram(REFRESH_NANOS);
+            histogram.record(micros * 1000);
+            histogram.record(2 * micros * 1000);
+            float median = histogram.getPercentileMillis(50) * 1000;
+            assertTrue(micros + " us: " + median, median > micros - 0.01f);
+            assertTrue(micros + " us: " + median,
+                    median <= micros * (1.0f + 1.0f / FrameTimeHistogram.SUB_BUCKET_COUNT)
+                            + 1.01f);
+        }
+    }
+
+    @Test
+    public void fixedStepFramesAreOnTime() {
+        FrameClock clock = new FixedStepFrameClock(REFRESH_NANOS);
+        FrameTimeHistogram histogram = new FrameTimeHistogram(REFRESH_NANOS);
+        long previous = clock.awaitFrame();
+        for (int i = 0; i < 600; i++) {
+            long frameTime = clock.awaitFrame();
+            histogram.record(frameTime - previous);
+            previous = frameTime;
+        }
+        assertEquals(600, histogram.getCount());
+        assertEquals(0, histogram.getMissedDeadlines());
+        assertEquals(histogram.getPercentileMillis(1), histogram.getPercentileMillis(99),
+                DELTA);
+        assertEquals(16.666f, histogram.getMaxMillis(), DELTA);
+    }
+
+    @Test
+    public void resetForgetsEverything() {
+        FrameTimeHistogram histogram = new FrameTimeHistogram(REFRESH_NANOS);
+        histogram.record(3 * REFRESH_NANOS);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMissedDeadlines());
+        assertEquals(0.0f, histogram.getPercentileMillis(99), DELTA);
+        assertEquals(0.0f, histogram.getMaxMillis(), DELTA);
+    }
+}